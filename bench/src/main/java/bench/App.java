@@ -0,0 +1,117 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * App gives the benchmarks access to the application classes.
+ *
+ * The application lives in the default package, which cannot be imported, and JMH will
+ * not generate benchmarks in the default package. The classes are reached through
+ * method handles instead, with application types erased to Object. The handles are held
+ * in static final fields, so the JIT inlines invokeExact calls through them like direct
+ * calls and the measurements are not skewed by reflection.
+ */
+final class App {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // FftEngine, SpectrumAnalyzer
+    static final Object HANN = windowType("HANN");
+    static final MethodHandle FFT_ENGINE = constructor("FftEngine", int.class, "FftEngine$WindowType");
+    static final MethodHandle FFT_MAGNITUDES = method("FftEngine", "magnitudes", void.class, float[].class, int.class, float[].class);
+    static final MethodHandle SPECTRUM_ANALYZER = constructor("SpectrumAnalyzer", int.class, int.class);
+    static final MethodHandle ANALYZE = method("SpectrumAnalyzer", "analyze", void.class, float[].class, int.class, float[].class);
+
+    // ConstantQAnalyzer
+    static final MethodHandle CONSTANT_Q_ANALYZER = constructor("ConstantQAnalyzer", float.class, int.class);
+    static final MethodHandle CONSTANT_Q_PROCESS = method("ConstantQAnalyzer", "process", void.class, float[].class, int.class, int.class);
+    static final MethodHandle CONSTANT_Q_BANDS = method("ConstantQAnalyzer", "bands", void.class, float[].class);
+
+    // SampleRing, the buffer behind PCMBuffer
+    static final MethodHandle SAMPLE_RING = constructor("SampleRing", int.class);
+    static final MethodHandle RING_WRITE = method("SampleRing", "write", void.class, float[].class, int.class, int.class);
+    static final MethodHandle RING_WRITE_SHORTS = method("SampleRing", "write", void.class, short[].class, int.class, int.class, int.class);
+    static final MethodHandle RING_READ = method("SampleRing", "read", boolean.class, long.class, float[].class, int.class, int.class);
+    static final MethodHandle RING_READ_LATEST = method("SampleRing", "readLatest", long.class, float[].class, int.class, int.class);
+    static final MethodHandle RING_POSITION = method("SampleRing", "position", long.class);
+
+    // PcmSource, PcmConverter
+    static final MethodHandle PCM_SOURCE_OPEN = staticMethod("PcmSource", "open", "PcmSource", String.class);
+    static final MethodHandle SOURCE_READ = method("PcmSource", "read", int.class, byte[].class, int.class, int.class);
+    static final MethodHandle SOURCE_SEEK = method("PcmSource", "seek", void.class, long.class);
+    static final MethodHandle SOURCE_CLOSE = method("PcmSource", "close", void.class);
+    static final MethodHandle TO_MONO = staticMethod("PcmConverter", "toMono", int.class,
+        byte[].class, int.class, javax.sound.sampled.AudioFormat.class, float[].class);
+
+    // BandSnapshot, BarRenderer
+    static final MethodHandle BAND_SNAPSHOT = constructor("BandSnapshot", float[].class);
+    static final MethodHandle BAR_RENDERER = constructor("BarRenderer", int.class);
+    static final MethodHandle PAINT_ALL = method("BarRenderer", "paintAll", void.class,
+        java.awt.Graphics2D.class, "BandSnapshot", int.class, int.class);
+    static final MethodHandle PAINT_CHANGED = method("BarRenderer", "paintChanged", java.awt.Rectangle.class,
+        java.awt.Graphics2D.class, "BandSnapshot", int.class, int.class);
+
+    private App() {}
+
+    private static Class<?> type(Object type) {
+        try {
+            return type instanceof String ? Class.forName((String) type) : (Class<?>) type;
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static Class<?>[] types(Object... types) {
+        Class<?>[] classes = new Class<?>[types.length];
+        for (int i = 0; i < types.length; i++) {
+            classes[i] = type(types[i]);
+        }
+        return classes;
+    }
+
+    private static MethodHandle constructor(String owner, Object... parameters) {
+        try {
+            return erase(LOOKUP.findConstructor(type(owner), MethodType.methodType(void.class, types(parameters))));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle method(String owner, String name, Object returnType, Object... parameters) {
+        try {
+            return erase(LOOKUP.findVirtual(type(owner), name, MethodType.methodType(type(returnType), types(parameters))));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static MethodHandle staticMethod(String owner, String name, Object returnType, Object... parameters) {
+        try {
+            return erase(LOOKUP.findStatic(type(owner), name, MethodType.methodType(type(returnType), types(parameters))));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Replaces every application type in the handle's signature with Object.
+     */
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        if (isApplicationType(type.returnType())) type = type.changeReturnType(Object.class);
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isApplicationType(type.parameterType(i))) type = type.changeParameterType(i, Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isApplicationType(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && type.getPackageName().isEmpty();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object windowType(String name) {
+        return Enum.valueOf((Class) type("FftEngine$WindowType"), name);
+    }
+}
@@ -0,0 +1,52 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One 60 fps frame's worth of samples (735 at 44.1 kHz) through the constant-Q sliding
+ * DFT, plus reading out the bands. Compare with SpectrumBenchmark at the FFT size that
+ * would give the same bass resolution.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConstantQBenchmark {
+    private static final int FRAME_SAMPLES = 44100 / 60;
+
+    @Param({"32", "64", "128"})
+    int bands;
+
+    private Object analyzer;
+    private float[] samples;
+    private float[] bandMagnitudes;
+
+    @Setup
+    public void setup() throws Throwable {
+        analyzer = (Object) App.CONSTANT_Q_ANALYZER.invokeExact(44100f, bands);
+        samples = Signals.noise(new Random(42), FRAME_SAMPLES);
+        bandMagnitudes = new float[bands];
+    }
+
+    @Benchmark
+    public float[] frame() throws Throwable {
+        App.CONSTANT_Q_PROCESS.invokeExact(analyzer, samples, 0, samples.length);
+        App.CONSTANT_Q_BANDS.invokeExact(analyzer, bandMagnitudes);
+        return bandMagnitudes;
+    }
+}
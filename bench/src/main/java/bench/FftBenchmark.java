@@ -0,0 +1,47 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Windowed real-input FFT to bin magnitudes, the first half of every visualizer frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FftBenchmark {
+    @Param({"256", "512", "1024", "2048", "4096", "8192"})
+    int fftSize;
+
+    private Object engine;
+    private float[] samples;
+    private float[] magnitudes;
+
+    @Setup
+    public void setup() throws Throwable {
+        engine = (Object) App.FFT_ENGINE.invokeExact(fftSize, App.HANN);
+        samples = Signals.noise(new Random(42), fftSize);
+        magnitudes = new float[fftSize / 2];
+    }
+
+    @Benchmark
+    public float[] magnitudes() throws Throwable {
+        App.FFT_MAGNITUDES.invokeExact(engine, samples, 0, magnitudes);
+        return magnitudes;
+    }
+}
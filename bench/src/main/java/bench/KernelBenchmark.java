@@ -0,0 +1,121 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The scalar and SIMD versions of each per-sample kernel side by side: 16-bit stereo PCM
+ * to mono, windowing, FFT magnitudes and a band sum over length values.
+ *
+ * VectorKernels cannot even be loaded without jdk.incubator.vector, so its handles live
+ * here rather than in App, and this benchmark's forks add the module.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelBenchmark {
+    private static final MethodHandle SCALAR_PCM16 = pcm16("ScalarKernels");
+    private static final MethodHandle VECTOR_PCM16 = pcm16("VectorKernels");
+    private static final MethodHandle SCALAR_MULTIPLY = multiply("ScalarKernels");
+    private static final MethodHandle VECTOR_MULTIPLY = multiply("VectorKernels");
+    private static final MethodHandle SCALAR_MAGNITUDES = magnitudes("ScalarKernels");
+    private static final MethodHandle VECTOR_MAGNITUDES = magnitudes("VectorKernels");
+    private static final MethodHandle SCALAR_SUM = sum("ScalarKernels");
+    private static final MethodHandle VECTOR_SUM = sum("VectorKernels");
+
+    @Param({"512", "4096"})
+    int length;
+
+    private byte[] pcm;
+    private float[] a;
+    private float[] b;
+    private float[] out;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        pcm = Signals.pcm16(random, length * 4);
+        a = Signals.noise(random, length);
+        b = Signals.noise(random, length);
+        out = new float[length];
+    }
+
+    @Benchmark
+    public float[] scalarPcm16ToMono() throws Throwable {
+        SCALAR_PCM16.invokeExact(pcm, 0, length, 2, false, out);
+        return out;
+    }
+
+    @Benchmark
+    public float[] vectorPcm16ToMono() throws Throwable {
+        VECTOR_PCM16.invokeExact(pcm, 0, length, 2, false, out);
+        return out;
+    }
+
+    @Benchmark
+    public float[] scalarMultiply() throws Throwable {
+        SCALAR_MULTIPLY.invokeExact(a, 0, b, out, length);
+        return out;
+    }
+
+    @Benchmark
+    public float[] vectorMultiply() throws Throwable {
+        VECTOR_MULTIPLY.invokeExact(a, 0, b, out, length);
+        return out;
+    }
+
+    @Benchmark
+    public float[] scalarMagnitudes() throws Throwable {
+        SCALAR_MAGNITUDES.invokeExact(a, b, out, length);
+        return out;
+    }
+
+    @Benchmark
+    public float[] vectorMagnitudes() throws Throwable {
+        VECTOR_MAGNITUDES.invokeExact(a, b, out, length);
+        return out;
+    }
+
+    @Benchmark
+    public float scalarSum() throws Throwable {
+        return (float) SCALAR_SUM.invokeExact(a, 0, length);
+    }
+
+    @Benchmark
+    public float vectorSum() throws Throwable {
+        return (float) VECTOR_SUM.invokeExact(a, 0, length);
+    }
+
+    private static MethodHandle pcm16(String owner) {
+        return App.staticMethod(owner, "pcm16ToMono", void.class,
+            byte[].class, int.class, int.class, int.class, boolean.class, float[].class);
+    }
+
+    private static MethodHandle multiply(String owner) {
+        return App.staticMethod(owner, "multiply", void.class, float[].class, int.class, float[].class, float[].class, int.class);
+    }
+
+    private static MethodHandle magnitudes(String owner) {
+        return App.staticMethod(owner, "magnitudes", void.class, float[].class, float[].class, float[].class, int.class);
+    }
+
+    private static MethodHandle sum(String owner) {
+        return App.staticMethod(owner, "sum", float.class, float[].class, int.class, int.class);
+    }
+}
@@ -0,0 +1,65 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the output thread does with every buffer besides writing it to the line:
+ * convert the PCM bytes to mono floats and append them to the sample ring, for CD and
+ * hi-res sample sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PcmConvertBenchmark {
+    @Param({"1", "2"})
+    int channels;
+
+    @Param({"16", "24"})
+    int bits;
+
+    @Param({"2048", "8192"})
+    int bufferBytes;
+
+    private AudioFormat format;
+    private byte[] data;
+    private float[] samples;
+    private Object ring;
+
+    @Setup
+    public void setup() throws Throwable {
+        format = new AudioFormat(44100, bits, channels, true, false);
+        // any bytes are valid samples; only the layout matters for the cost
+        data = Signals.pcm16(new Random(42), bufferBytes);
+        samples = new float[bufferBytes / format.getFrameSize()];
+        ring = (Object) App.SAMPLE_RING.invokeExact(1 << 18);
+    }
+
+    @Benchmark
+    public int toMono() throws Throwable {
+        return (int) App.TO_MONO.invokeExact(data, data.length, format, samples);
+    }
+
+    @Benchmark
+    public Object toMonoAndPublish() throws Throwable {
+        int count = (int) App.TO_MONO.invokeExact(data, data.length, format, samples);
+        App.RING_WRITE.invokeExact(ring, samples, 0, count);
+        return ring;
+    }
+}
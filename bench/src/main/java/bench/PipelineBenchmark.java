@@ -0,0 +1,97 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One output buffer through the whole path up to the visualizer: read PCM from a WAV
+ * file, convert it to mono, append it to the sample ring, copy out the newest window
+ * and reduce it to bands.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    private static final int SECONDS = 10;
+
+    @Param({"2048", "8192"})
+    int bufferBytes;
+
+    @Param({"1024", "4096"})
+    int fftSize;
+
+    @Param({"64"})
+    int bands;
+
+    private Path file;
+    private AudioFormat format;
+    private Object source;
+    private Object ring;
+    private Object analyzer;
+    private byte[] buffer;
+    private float[] samples;
+    private float[] window;
+    private float[] bandMagnitudes;
+
+    @Setup
+    public void setup() throws Throwable {
+        format = new AudioFormat(44100, 16, 2, true, false);
+        byte[] pcm = Signals.pcm16(new Random(42), 44100 * 4 * SECONDS);
+        file = Files.createTempFile("pipeline", ".wav");
+        try (AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(pcm), format, pcm.length / 4)) {
+            AudioSystem.write(stream, AudioFileFormat.Type.WAVE, new File(file.toString()));
+        }
+
+        source = (Object) App.PCM_SOURCE_OPEN.invokeExact(file.toString());
+        ring = (Object) App.SAMPLE_RING.invokeExact(1 << 18);
+        analyzer = (Object) App.SPECTRUM_ANALYZER.invokeExact(fftSize, bands);
+        buffer = new byte[bufferBytes];
+        samples = new float[bufferBytes / 2];
+        window = new float[fftSize];
+        bandMagnitudes = new float[bands];
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        App.SOURCE_CLOSE.invokeExact(source);
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public float[] buffer() throws Throwable {
+        int bytesRead = (int) App.SOURCE_READ.invokeExact(source, buffer, 0, buffer.length);
+        if (bytesRead == -1) {
+            App.SOURCE_SEEK.invokeExact(source, 0L);
+            bytesRead = (int) App.SOURCE_READ.invokeExact(source, buffer, 0, buffer.length);
+        }
+        int count = (int) App.TO_MONO.invokeExact(buffer, bytesRead, format, samples);
+        App.RING_WRITE.invokeExact(ring, samples, 0, count);
+        long end = (long) App.RING_READ_LATEST.invokeExact(ring, window, 0, window.length);
+        App.ANALYZE.invokeExact(analyzer, window, 0, bandMagnitudes);
+        return bandMagnitudes;
+    }
+}
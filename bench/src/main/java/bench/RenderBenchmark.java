@@ -0,0 +1,89 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drawing visualizer frames offscreen into a BufferedImage, either in full (a resize or
+ * an export) or incrementally over the previous frame (the live panel).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+    private static final int FRAMES = 64;
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    String resolution;
+
+    @Param({"64", "256"})
+    int bands;
+
+    private int width;
+    private int height;
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private Object renderer;
+    private Object[] snapshots;
+    private int frame;
+
+    @Setup
+    public void setup() throws Throwable {
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+        renderer = (Object) App.BAR_RENDERER.invokeExact(bands);
+
+        // a fixed loop of smoothed random frames, so consecutive frames move like real ones
+        Random random = new Random(42);
+        float[] magnitudes = new float[bands];
+        snapshots = new Object[FRAMES];
+        for (int f = 0; f < FRAMES; f++) {
+            for (int i = 0; i < bands; i++) {
+                magnitudes[i] = magnitudes[i] * 0.5f + random.nextFloat() * 0.5f;
+            }
+            snapshots[f] = (Object) App.BAND_SNAPSHOT.invokeExact(magnitudes);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paintAll() throws Throwable {
+        App.PAINT_ALL.invokeExact(renderer, graphics, next(), width, height);
+        return image;
+    }
+
+    @Benchmark
+    public Object paintChanged() throws Throwable {
+        return (java.awt.Rectangle) App.PAINT_CHANGED.invokeExact(renderer, graphics, next(), width, height);
+    }
+
+    private Object next() {
+        frame = (frame + 1) % FRAMES;
+        return snapshots[frame];
+    }
+}
@@ -0,0 +1,70 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uncontended writes and window reads on the SampleRing behind PCMBuffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleBufferBenchmark {
+    @Param({"512", "1024", "4096"})
+    int length;
+
+    private Object ring;
+    private float[] samples;
+    private short[] shorts;
+    private float[] window;
+
+    @Setup
+    public void setup() throws Throwable {
+        ring = (Object) App.SAMPLE_RING.invokeExact(1 << 18);
+        samples = Signals.noise(new Random(42), length);
+        shorts = new short[length * 2];
+        for (int i = 0; i < shorts.length; i++) {
+            shorts[i] = (short) (samples[i / 2] * 32767);
+        }
+        window = new float[length];
+        App.RING_WRITE.invokeExact(ring, new float[1 << 17], 0, 1 << 17);
+    }
+
+    @Benchmark
+    public Object addSamples() throws Throwable {
+        App.RING_WRITE.invokeExact(ring, samples, 0, length);
+        return ring;
+    }
+
+    @Benchmark
+    public Object addStereoShorts() throws Throwable {
+        App.RING_WRITE_SHORTS.invokeExact(ring, shorts, 0, shorts.length, 2);
+        return ring;
+    }
+
+    @Benchmark
+    public boolean read() throws Throwable {
+        long end = (long) App.RING_POSITION.invokeExact(ring);
+        return (boolean) App.RING_READ.invokeExact(ring, end, window, 0, length);
+    }
+
+    @Benchmark
+    public long readLatest() throws Throwable {
+        return (long) App.RING_READ_LATEST.invokeExact(ring, window, 0, length);
+    }
+}
@@ -0,0 +1,89 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The output thread appending to the sample ring while visualizer threads copy windows
+ * out of it at the same time. Reads that lose a race with the writer are retried by the
+ * ring, so a slower reader score here means more retries.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleBufferContentionBenchmark {
+    @Param({"512", "2048"})
+    int chunk;
+
+    @Param({"1024"})
+    int window;
+
+    private Object ring;
+    private float[] samples;
+
+    @Setup
+    public void setup() throws Throwable {
+        ring = (Object) App.SAMPLE_RING.invokeExact(1 << 18);
+        samples = Signals.noise(new Random(42), chunk);
+    }
+
+    /**
+     * Per-thread destination for reads; the ring itself is shared by the group.
+     */
+    @State(Scope.Thread)
+    public static class Reader {
+        float[] window;
+
+        @Setup
+        public void setup(SampleBufferContentionBenchmark shared) {
+            window = new float[shared.window];
+        }
+    }
+
+    @Benchmark
+    @Group("oneReader")
+    @GroupThreads(1)
+    public Object writeOneReader() throws Throwable {
+        App.RING_WRITE.invokeExact(ring, samples, 0, chunk);
+        return ring;
+    }
+
+    @Benchmark
+    @Group("oneReader")
+    @GroupThreads(1)
+    public long readOneReader(Reader reader) throws Throwable {
+        return (long) App.RING_READ_LATEST.invokeExact(ring, reader.window, 0, reader.window.length);
+    }
+
+    @Benchmark
+    @Group("threeReaders")
+    @GroupThreads(1)
+    public Object writeThreeReaders() throws Throwable {
+        App.RING_WRITE.invokeExact(ring, samples, 0, chunk);
+        return ring;
+    }
+
+    @Benchmark
+    @Group("threeReaders")
+    @GroupThreads(3)
+    public long readThreeReaders(Reader reader) throws Throwable {
+        return (long) App.RING_READ_LATEST.invokeExact(ring, reader.window, 0, reader.window.length);
+    }
+}
@@ -0,0 +1,31 @@
+package bench;
+
+import java.util.Random;
+
+/**
+ * Deterministic test signals for the benchmarks.
+ */
+final class Signals {
+    private Signals() {}
+
+    static float[] noise(Random random, int length) {
+        float[] samples = new float[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = random.nextFloat() * 2f - 1f;
+        }
+        return samples;
+    }
+
+    /**
+     * @return length bytes of 16-bit little-endian noise
+     */
+    static byte[] pcm16(Random random, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i + 1 < length; i += 2) {
+            short sample = (short) (random.nextGaussian() * 6000);
+            data[i] = (byte) sample;
+            data[i + 1] = (byte) (sample >> 8);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,51 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole SpectrumAnalyzer frame: the FFT plus averaging its bins into bands. Compared
+ * with FftBenchmark at the same size, the difference is the cost of the band loop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpectrumBenchmark {
+    @Param({"512", "1024", "2048", "4096"})
+    int fftSize;
+
+    @Param({"32", "64", "128", "256"})
+    int bands;
+
+    private Object analyzer;
+    private float[] samples;
+    private float[] bandMagnitudes;
+
+    @Setup
+    public void setup() throws Throwable {
+        analyzer = (Object) App.SPECTRUM_ANALYZER.invokeExact(fftSize, bands);
+        samples = Signals.noise(new Random(42), fftSize);
+        bandMagnitudes = new float[bands];
+    }
+
+    @Benchmark
+    public float[] analyze() throws Throwable {
+        App.ANALYZE.invokeExact(analyzer, samples, 0, bandMagnitudes);
+        return bandMagnitudes;
+    }
+}
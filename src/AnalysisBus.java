@@ -0,0 +1,298 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AnalysisBus analyzes the audio that is audible right now once per visualizer frame
+ * and publishes the result to any number of AnalysisViews.
+ *
+ * Each view subscribes with the AnalysisProducts it draws, and each frame the bus
+ * computes only the union of those: the window of PCM samples that ends at the output
+ * line's current frame is copied from PCMBuffer only if some product needs it, and the
+ * FFT runs only for SPECTRUM, or for BANDS when the track's Spectrogram is not in the
+ * SpectrogramCache yet. So several views cost one analysis, not one each, and a frame
+ * nobody subscribed to costs nothing.
+ *
+ * With -Dvisualizer.analyzer=cq the BANDS are log-spaced constant-Q bands instead, from a
+ * ConstantQAnalyzer fed every sample the output line has played since the last frame.
+ *
+ * While any BeatListener is registered, the bus also runs a BeatTracker on the same
+ * thread. It is fed the bands of every hop of output since the last frame, up to
+ * MAX_BEAT_HOPS per frame; a seek or a stall that leaves it further behind restarts it
+ * at the current position instead, so it never takes more than that share of a frame.
+ *
+ * The frame loop runs on its own analysis thread. Results go into pooled AnalysisFrames,
+ * so the loop does not allocate once the pool has warmed up.
+ */
+public class AnalysisBus {
+    public static final int WINDOW_SIZE = SpectrumAnalyzer.DEFAULT_FFT_SIZE;
+    public static final int BANDS = SpectrumAnalyzer.DEFAULT_BANDS;
+    private static final int FRAME_INTERVAL_MS = 16; // ~60 fps
+    // frames views may hold at once before the pool has to allocate
+    private static final int POOL_SIZE = 8;
+    private static final boolean CONSTANT_Q = "cq".equals(System.getProperty("visualizer.analyzer"));
+    private static final int BEAT_HOP = OfflineAnalyzer.DEFAULT_HOP;
+    // about 90 ms of 44.1 kHz output, several frames' worth
+    private static final int MAX_BEAT_HOPS = 8;
+
+    private final AudioPlayer player;
+    private final BlockingQueue<AnalysisFrame> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    // replaced as a whole on every change, so the frame loop reads it without locking
+    private volatile Subscription[] subscriptions = new Subscription[0];
+    private volatile Set<AnalysisProduct> needed = EnumSet.noneOf(AnalysisProduct.class);
+    private volatile BeatListener[] beatListeners = new BeatListener[0];
+
+    // analysis thread state
+    private final SpectrumAnalyzer analyzer = new SpectrumAnalyzer(WINDOW_SIZE, BANDS);
+    private final float[] spareBands = new float[BANDS];
+    private String spectrogramPath;
+    private CompletableFuture<Spectrogram> spectrogram;
+    private ConstantQAnalyzer constantQ;
+    private long constantQPosition = -1;
+    private final float[] constantQSamples = new float[4096];
+    private final BeatListener beatFanOut = new BeatListener() {
+        @Override
+        public void onset(long sampleFrame, float strength) {
+            for (BeatListener listener : beatListeners) {
+                listener.onset(sampleFrame, strength);
+            }
+        }
+
+        @Override
+        public void beat(long sampleFrame, float bpm) {
+            for (BeatListener listener : beatListeners) {
+                listener.beat(sampleFrame, bpm);
+            }
+        }
+    };
+    private BeatTracker beatTracker;
+    private long beatPosition = -1;
+    private final float[] beatSamples = new float[WINDOW_SIZE];
+    private final float[] beatBands = new float[BANDS];
+
+    public AnalysisBus(AudioPlayer player) {
+        this.player = player;
+        Thread analysisThread = new Thread(this::frameLoop, "visualizer-analysis");
+        analysisThread.setDaemon(true);
+        analysisThread.start();
+    }
+
+    /**
+     * Starts publishing frames with the given products to view, in place of whatever
+     * it was subscribed to before.
+     */
+    public synchronized void subscribe(AnalysisView view, Set<AnalysisProduct> products) {
+        List<Subscription> list = new ArrayList<>(Arrays.asList(subscriptions));
+        list.removeIf(s -> s.view == view);
+        list.add(new Subscription(view, products));
+        update(list);
+    }
+
+    public synchronized void unsubscribe(AnalysisView view) {
+        List<Subscription> list = new ArrayList<>(Arrays.asList(subscriptions));
+        if (list.removeIf(s -> s.view == view)) update(list);
+    }
+
+    /**
+     * Starts reporting the onsets and beats of what is played to listener, on the
+     * analysis thread.
+     */
+    public synchronized void addBeatListener(BeatListener listener) {
+        List<BeatListener> list = new ArrayList<>(Arrays.asList(beatListeners));
+        list.add(listener);
+        beatListeners = list.toArray(new BeatListener[0]);
+    }
+
+    public synchronized void removeBeatListener(BeatListener listener) {
+        List<BeatListener> list = new ArrayList<>(Arrays.asList(beatListeners));
+        list.remove(listener);
+        beatListeners = list.toArray(new BeatListener[0]);
+    }
+
+    private void update(List<Subscription> list) {
+        Set<AnalysisProduct> union = EnumSet.noneOf(AnalysisProduct.class);
+        for (Subscription s : list) {
+            union.addAll(s.products);
+        }
+        subscriptions = list.toArray(new Subscription[0]);
+        needed = union;
+    }
+
+    private void frameLoop() {
+        long interval = TimeUnit.MILLISECONDS.toNanos(FRAME_INTERVAL_MS);
+        long next = System.nanoTime();
+        long last = next;
+        while (true) {
+            long frameStart = System.nanoTime();
+            PlaybackMetrics.recordFrameInterval(frameStart - last);
+            last = frameStart;
+
+            if (beatListeners.length > 0) {
+                trackBeats();
+            } else {
+                beatPosition = -1;
+            }
+
+            Subscription[] views = subscriptions;
+            if (views.length > 0) {
+                AnalysisFrame frame = analyze(needed);
+                for (Subscription s : views) {
+                    s.view.frameAnalyzed(frame);
+                }
+                frame.release();
+            }
+
+            next += interval;
+            long delay = next - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            } else {
+                // fell behind; skip the missed frames rather than bursting to catch up
+                PlaybackMetrics.recordSkippedFrames(-delay / interval);
+                next = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Computes the given products for the window that is audible right now.
+     */
+    private AnalysisFrame analyze(Set<AnalysisProduct> products) {
+        long start = System.nanoTime();
+        AnalysisFrame frame = pool.poll();
+        if (frame == null) frame = new AnalysisFrame(WINDOW_SIZE, BANDS, pool);
+        long end = player.getOutputFrame();
+        frame.begin(end, player.getOutputSampleRate(), products);
+
+        boolean live = false;
+        boolean bandsDone = false;
+        if (products.contains(AnalysisProduct.BANDS)) {
+            if (CONSTANT_Q) {
+                updateConstantQ(end, frame.bands());
+                live = true;
+                bandsDone = true;
+            } else {
+                bandsDone = lookUpBands(frame.bands());
+            }
+        }
+        boolean fft = products.contains(AnalysisProduct.SPECTRUM)
+            || products.contains(AnalysisProduct.BANDS) && !bandsDone;
+
+        if (fft || products.contains(AnalysisProduct.WAVEFORM) || products.contains(AnalysisProduct.LEVELS)) {
+            float[] samples = frame.waveform();
+            if (!PCMBuffer.read(end, samples)) {
+                Arrays.fill(samples, 0f);
+            }
+            if (fft) {
+                // bands that were looked up or come from constant-Q are kept
+                analyzer.analyze(samples, 0, frame.spectrum(), bandsDone ? spareBands : frame.bands());
+                live = true;
+            }
+            if (products.contains(AnalysisProduct.LEVELS)) {
+                float sum = 0f;
+                float peak = 0f;
+                for (float sample : samples) {
+                    sum += sample * sample;
+                    peak = Math.max(peak, Math.abs(sample));
+                }
+                frame.setLevels((float) Math.sqrt(sum / samples.length), peak);
+            }
+        }
+
+        PlaybackMetrics.recordAnalysis(System.nanoTime() - start, live);
+        return frame;
+    }
+
+    /**
+     * @return true if the bands were looked up in the track's cached Spectrogram
+     */
+    private boolean lookUpBands(float[] bandMagnitudes) {
+        String path = player.getPlaybackPath();
+        if (!Objects.equals(path, spectrogramPath)) {
+            spectrogramPath = path;
+            // a stream cannot be read a second time to analyze it ahead
+            spectrogram = path != null && !PcmSource.isStream(path) ? SpectrogramCache.get(Path.of(path)) : null;
+        }
+
+        Spectrogram cached = spectrogram != null && spectrogram.isDone()
+            && !spectrogram.isCompletedExceptionally() ? spectrogram.join() : null;
+        return cached != null && cached.read(player.getPlaybackFrame(), bandMagnitudes);
+    }
+
+    private void updateConstantQ(long end, float[] bandMagnitudes) {
+        float sampleRate = player.getOutputSampleRate();
+        if (sampleRate <= 0) {
+            Arrays.fill(bandMagnitudes, 0f);
+            return;
+        }
+        if (constantQ == null || constantQ.getSampleRate() != sampleRate) {
+            constantQ = new ConstantQAnalyzer(sampleRate, BANDS);
+            constantQPosition = -1;
+        }
+
+        if (constantQPosition < 0 || end < constantQPosition || end - constantQPosition > constantQ.getHistoryLength()) {
+            // new line, seek or long stall: start over from the longest window before end
+            constantQ.reset();
+            constantQPosition = Math.max(0, end - constantQ.getHistoryLength());
+        }
+
+        // feed everything played since the last frame
+        while (constantQPosition < end) {
+            int n = (int) Math.min(constantQSamples.length, end - constantQPosition);
+            if (!PCMBuffer.read(constantQPosition + n, constantQSamples, 0, n)) {
+                Arrays.fill(constantQSamples, 0, n, 0f);
+            }
+            constantQ.process(constantQSamples, 0, n);
+            constantQPosition += n;
+        }
+        constantQ.bands(bandMagnitudes);
+    }
+
+    /**
+     * Feeds the beat tracker the bands of every hop played since the last frame.
+     */
+    private void trackBeats() {
+        float sampleRate = player.getOutputSampleRate();
+        if (sampleRate <= 0) return;
+        if (beatTracker == null || beatTracker.getSampleRate() != sampleRate) {
+            beatTracker = new BeatTracker(BANDS, BEAT_HOP, sampleRate, beatFanOut);
+            beatPosition = -1;
+        }
+
+        long end = player.getOutputFrame();
+        if (beatPosition < 0 || end < beatPosition - BEAT_HOP || end - beatPosition > MAX_BEAT_HOPS * BEAT_HOP) {
+            // new line, seek or stall: what came before no longer leads up to end
+            beatTracker.reset(end);
+            beatPosition = end;
+        }
+
+        while (beatPosition <= end) {
+            if (!PCMBuffer.read(beatPosition, beatSamples)) {
+                Arrays.fill(beatSamples, 0f);
+            }
+            analyzer.analyze(beatSamples, 0, beatBands);
+            beatTracker.process(beatBands);
+            beatPosition += BEAT_HOP;
+        }
+    }
+
+    private static final class Subscription {
+        final AnalysisView view;
+        final Set<AnalysisProduct> products;
+
+        Subscription(AnalysisView view, Set<AnalysisProduct> products) {
+            this.view = view;
+            this.products = products.isEmpty() ? EnumSet.noneOf(AnalysisProduct.class) : EnumSet.copyOf(products);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AnalysisFrame holds the products the AnalysisBus computed for one visualizer frame:
+ * any of the FFT spectrum, the band magnitudes, the RMS and peak level and the raw
+ * waveform of the audible window. Views can only read it.
+ *
+ * Frames are pooled. The bus holds one reference while it hands a frame to its views;
+ * a view that keeps the frame past its callback calls retain() and, once done with it,
+ * release(). When the last reference is released the frame goes back to the pool and
+ * is overwritten by a later frame, so it must not be read after that.
+ */
+public final class AnalysisFrame {
+    private final float[] spectrum;
+    private final float[] bands;
+    private final float[] waveform;
+    private final Set<AnalysisProduct> products = EnumSet.noneOf(AnalysisProduct.class);
+    private final AtomicInteger references = new AtomicInteger();
+    private final BlockingQueue<AnalysisFrame> pool;
+
+    private float rms;
+    private float peak;
+    private long outputFrame;
+    private float sampleRate;
+    private long nanoTime;
+
+    AnalysisFrame(int windowSize, int bands, BlockingQueue<AnalysisFrame> pool) {
+        this.spectrum = new float[windowSize / 2];
+        this.bands = new float[bands];
+        this.waveform = new float[windowSize];
+        this.pool = pool;
+    }
+
+    /**
+     * @return true if the frame holds the given product
+     */
+    public boolean has(AnalysisProduct product) {
+        return products.contains(product);
+    }
+
+    /**
+     * @return the output line frame the audible window ends at
+     */
+    public long getOutputFrame() {
+        return outputFrame;
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return the System.nanoTime at which the frame was analyzed
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    public int getBinCount() {
+        return spectrum.length;
+    }
+
+    public float getBin(int bin) {
+        return spectrum[bin];
+    }
+
+    public int getBandCount() {
+        return bands.length;
+    }
+
+    public float getBand(int band) {
+        return bands[band];
+    }
+
+    public int getWaveformLength() {
+        return waveform.length;
+    }
+
+    public float getSample(int index) {
+        return waveform[index];
+    }
+
+    /**
+     * Copies the band magnitudes into dst, which must hold getBandCount() values.
+     */
+    public void copyBands(float[] dst) {
+        System.arraycopy(bands, 0, dst, 0, bands.length);
+    }
+
+    /**
+     * Copies the waveform into dst, which must hold getWaveformLength() values.
+     */
+    public void copyWaveform(float[] dst) {
+        System.arraycopy(waveform, 0, dst, 0, waveform.length);
+    }
+
+    public float getRms() {
+        return rms;
+    }
+
+    public float getPeak() {
+        return peak;
+    }
+
+    public void retain() {
+        references.incrementAndGet();
+    }
+
+    public void release() {
+        int left = references.decrementAndGet();
+        if (left == 0) {
+            products.clear();
+            // a full pool means views held on to frames for a while; let the spare go
+            pool.offer(this);
+        } else if (left < 0) {
+            throw new IllegalStateException("AnalysisFrame released more often than retained");
+        }
+    }
+
+    // bus side: filled in on the analysis thread before the frame is published
+
+    void begin(long outputFrame, float sampleRate, Set<AnalysisProduct> products) {
+        this.outputFrame = outputFrame;
+        this.sampleRate = sampleRate;
+        this.nanoTime = System.nanoTime();
+        this.products.addAll(products);
+        references.set(1);
+    }
+
+    float[] spectrum() {
+        return spectrum;
+    }
+
+    float[] bands() {
+        return bands;
+    }
+
+    float[] waveform() {
+        return waveform;
+    }
+
+    void setLevels(float rms, float peak) {
+        this.rms = rms;
+        this.peak = peak;
+    }
+}
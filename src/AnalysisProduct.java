@@ -0,0 +1,15 @@
+/**
+ * AnalysisProduct is one of the things the AnalysisBus can compute for a frame. Views
+ * subscribe to the products they draw, and the bus computes only what some view asked
+ * for.
+ */
+public enum AnalysisProduct {
+    /** magnitudes of the FFT bins of the Hann-windowed audible window */
+    SPECTRUM,
+    /** band magnitudes: FFT or constant-Q bands, or looked up in a cached Spectrogram */
+    BANDS,
+    /** RMS and peak level of the audible window */
+    LEVELS,
+    /** the mono samples of the audible window themselves */
+    WAVEFORM
+}
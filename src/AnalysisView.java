@@ -0,0 +1,10 @@
+/**
+ * AnalysisView receives the frames an AnalysisBus publishes.
+ *
+ * Callbacks run on the bus's analysis thread, once per frame, so they should only copy
+ * what they need and hand it over to the event dispatch thread. A frame is valid for
+ * the duration of the call unless the view retains it.
+ */
+public interface AnalysisView {
+    void frameAnalyzed(AnalysisFrame frame);
+}
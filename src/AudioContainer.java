@@ -0,0 +1,48 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * AudioContainer tells the formats PcmSource can open apart by their first bytes, so
+ * that how a track is decoded depends on what it holds rather than on what it is called,
+ * and a stream, which has no name at all, can be decoded too.
+ */
+public enum AudioContainer {
+    MP3,
+    WAV,
+    // anything else, left to javax.sound.sampled
+    OTHER;
+
+    /**
+     * The number of leading bytes sniff needs to see.
+     */
+    public static final int HEADER_BYTES = 12;
+
+    /**
+     * Recognizes a RIFF WAVE header, an ID3v2 tag, or the sync word of an MPEG audio frame.
+     */
+    public static AudioContainer sniff(byte[] head, int length) {
+        if (length >= 12 && startsWith(head, 0, "RIFF") && startsWith(head, 8, "WAVE")) return WAV;
+        if (length >= 3 && startsWith(head, 0, "ID3")) return MP3;
+        // eleven set sync bits, then any layer but the reserved 00 that ADTS AAC uses
+        if (length >= 2 && (head[0] & 0xff) == 0xff && (head[1] & 0xe0) == 0xe0 && (head[1] & 0x06) != 0) return MP3;
+        return OTHER;
+    }
+
+    public static AudioContainer of(Path file) throws IOException {
+        byte[] head = new byte[HEADER_BYTES];
+        try (InputStream in = Files.newInputStream(file)) {
+            return sniff(head, in.readNBytes(head, 0, head.length));
+        }
+    }
+
+    private static boolean startsWith(byte[] head, int offset, String tag) {
+        byte[] expected = tag.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < expected.length; i++) {
+            if (head[offset + i] != expected[i]) return false;
+        }
+        return true;
+    }
+}
@@ -1,285 +1,826 @@
-import javazoom.jl.decoder.Bitstream;
-import javazoom.jl.player.advanced.AdvancedPlayer;
-import javazoom.jl.player.advanced.PlaybackEvent;
-import javazoom.jl.player.advanced.PlaybackListener;
-
 import javax.sound.sampled.*;
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 
 /**
  * AudioPlayer is a unified audio playback handler supporting both WAV and MP3 files.
  *
- * Plays, pauses, resumes, seeks, and stops audio.
+ * Plays, pauses, resumes, seeks, and stops audio, and plays a queue of tracks back to
+ * back.
+ *
+ * Every track is opened as a PcmSource (MP3 is decoded ahead with JLayer, WAV is read
+ * directly) and written to an AudioSink, normally a javax.sound.sampled SourceDataLine,
+ * by a single output thread. Streams, such as standard input, a named pipe or an HTTP
+ * URL, are opened as a StreamingSource and play the same way, except that seeks in them
+ * are ignored. Pausing only stops the line and parks the output thread; the line, the
+ * track and its decoder stay as they are, so resuming starts the line again without
+ * reopening or seeking anything. While a track plays, the next queued track is opened
+ * and its first second decoded on a background worker. When the formats match, the line
+ * stays open and the next track's frames follow the last frames of the current one, so
+ * the change is sample-continuous, optionally with a crossfade.
+ *
+ * The public control methods only queue a command for one long-lived control thread,
+ * which owns the player's state and is the only thread that changes it. To seek or stop,
+ * it signals the output thread, waits for it to hand back the track it was playing
+ * and where it got to, and only then moves on, so two outputs can never overlap. Seeks
+ * that arrive faster than they can be applied are coalesced into the latest one. State
+ * changes are announced to PlaybackListeners.
+ *
+ * Position is tracked by a playback clock in sample frames, read from the output line
+ * itself, so progress, seeking and the visualizer all agree on what is audible.
  *
- * MP3 playback is handled using JLayer (AdvancedPlayer), and WAV uses javax.sound.sampled.
+ * How much audio is queued in the line, and so how far the sound lags the decoder, is
+ * set by an OutputProfile. The fill target grows after an underrun and shrinks back once
+ * playback has run cleanly for RECOVERY_SECONDS.
  */
 public class AudioPlayer {
-    private enum Type { NONE, MP3, WAV }
-
-    private Type currentType = Type.NONE;
-    private String currentPath;
-    private String fileName;
-    private Consumer<String> statusReporter;
-
-    public boolean isPaused = true;
-    public boolean isFinished = true;
-
-    // MP3
-    private AdvancedPlayer mp3Player;
-    private Thread mp3Thread;
-    private int mp3PausedFrame = 0;
-    private int mp3TotalFrames = 0;
-    private final int MP3_FRAME_DURATION_MS = 26;
-    private long mp3StartTimeMillis = 0;
-
-    // WAV
-    private Thread wavThread;
-    private long wavPausedPos = 0;
-    private long wavLength = 0;
-    private boolean wavStopped = false;
+    // how much of the next track the prefetch worker decodes ahead
+    private static final int PREFETCH_MILLIS = 1000;
+    private static final int RECOVERY_SECONDS = 10;
+
+    private final AtomicReference<PlaybackState> state = new AtomicReference<>(PlaybackState.STOPPED);
+    private final List<PlaybackListener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService control = daemonThread("playback-control");
+    private final AtomicReference<Float> pendingSeek = new AtomicReference<>();
+
+    // owned by the control thread; volatile so the getters can read them
+    private volatile String currentPath;
+    private volatile String fileName;
+    private volatile Consumer<String> statusReporter = status -> {};
+    private volatile PcmSource source;
+    private volatile long pausedFrame = 0;
+    private volatile long pausedOutputFrame = 0;
+    private CompletableFuture<OutputResult> outputTask;
+
+    // play queue; the head is prefetched while the current track plays
+    private final Deque<QueuedTrack> queue = new ArrayDeque<>();
+    private final ExecutorService prefetcher = daemonThread("track-prefetch");
+    private Future<PrefetchedTrack> nextTrack;
+    private volatile int crossfadeMillis = 0;
+    private volatile OutputProfile outputProfile = OutputProfile.configured();
+
+    // output
+    private final ExecutorService output = daemonThread("playback-output");
+    private final AudioSink.Factory sinks;
+    private volatile AudioSink line;
+    private volatile boolean stopped = true;
+    // guards paused and starting the line, so a line opened while paused stays stopped
+    private final Object pauseLock = new Object();
+    private volatile boolean paused;
+    // the track the output thread is writing, which moves ahead of source between commands
+    private volatile PcmSource outputTrack;
+    private final List<Segment> segments = new ArrayList<>();
+    // owned by the output thread: the profile the line follows and its current fill target
+    private OutputProfile lineProfile;
+    private int lineTargetMillis;
+    private long lineTargetChanged;
+
+    private static ExecutorService daemonThread(String name) {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public AudioPlayer() {
+        this(LineSink::open);
+    }
+
+    /**
+     * Plays to sinks opened by the given factory instead of the sound card, e.g. to a
+     * SimulatedSink where there is no audio device.
+     */
+    public AudioPlayer(AudioSink.Factory sinks) {
+        this.sinks = sinks;
+    }
+
+    public PlaybackState getState() {
+        return state.get();
+    }
+
+    public void addListener(PlaybackListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(PlaybackListener listener) {
+        listeners.remove(listener);
+    }
 
     public float getProgress() {
-        return switch (currentType) {
-            case MP3 -> mp3TotalFrames > 0 ? Math.min(getCurrentFrame() / (float) mp3TotalFrames, 1f) : 0f;
-            case WAV -> wavLength > 0 ? wavPausedPos / (float) wavLength : 0f;
-            default -> 0f;
-        };
+        Segment segment = state.get() == PlaybackState.PLAYING ? audibleSegment() : null;
+        PcmSource track = segment != null ? segment.track : source;
+        long totalFrames = track != null ? track.getFrameLength() : 0;
+        return totalFrames > 0 ? Math.min(getPlaybackFrame() / (float) totalFrames, 1f) : 0f;
+    }
+
+    /**
+     * Returns the sample frame of the current track that is audible right now, taken from
+     * the frame position of the output line rather than from wall-clock time.
+     */
+    public long getPlaybackFrame() {
+        if (state.get() != PlaybackState.PLAYING) return pausedFrame;
+        AudioSink out = line;
+        if (out == null) return pausedFrame;
+        long position = out.getLongFramePosition();
+        Segment segment = audibleSegment(position);
+        return segment != null ? segment.trackStart + position - segment.lineStart : pausedFrame;
+    }
+
+    /**
+     * Returns the frame of the output line that is audible right now. PCMBuffer uses the
+     * same numbering, which keeps counting across gapless track changes.
+     */
+    public long getOutputFrame() {
+        if (state.get() != PlaybackState.PLAYING) return pausedOutputFrame;
+        AudioSink out = line;
+        return out != null ? out.getLongFramePosition() : pausedOutputFrame;
     }
 
-    private int getCurrentFrame() {
-        if (isPaused) return mp3PausedFrame;
-        return mp3PausedFrame + (int) ((System.currentTimeMillis() - mp3StartTimeMillis) / MP3_FRAME_DURATION_MS);
+    /**
+     * Returns the sample rate of the output line, which is also the rate of PCMBuffer's
+     * samples, or AudioSystem.NOT_SPECIFIED if no line is open.
+     */
+    public float getOutputSampleRate() {
+        AudioSink out = line;
+        return out != null ? out.getFormat().getSampleRate() : AudioSystem.NOT_SPECIFIED;
+    }
+
+    /**
+     * Returns the path of the track getPlaybackFrame refers to, or null if none is loaded
+     * or it is a stream that was handed over without one.
+     */
+    public String getPlaybackPath() {
+        PlaybackState current = state.get();
+        if (current == PlaybackState.STOPPED) return null;
+        Segment segment = current == PlaybackState.PLAYING ? audibleSegment() : null;
+        return segment != null ? segment.path : currentPath;
     }
 
     public void play(String path, String name, Consumer<String> reporter) {
-        stop();
-        this.statusReporter = reporter;
-        this.currentPath = path;
-        this.fileName = name;
-        this.isPaused = false;
-        this.isFinished = false;
-
-        if (path.endsWith(".mp3")) {
-            currentType = Type.MP3;
-            mp3PausedFrame = 0;
-            playMp3();
-        } else if (path.endsWith(".wav")) {
-            currentType = Type.WAV;
-            wavPausedPos = 0;
-            playWav(0);
-        } else {
-            reporter.accept("Error: Unsupported file type.");
-            isPaused = true;
-            isFinished = true;
+        control.execute(() -> doPlay(path, name, reporter));
+    }
+
+    /**
+     * Plays audio as it arrives on stream, e.g. from another process. The track has no
+     * path, so it cannot be played again once it has finished.
+     */
+    public void play(InputStream stream, String name, Consumer<String> reporter) {
+        control.execute(() -> doPlay(null, name, reporter, () -> StreamingSource.open(stream)));
+    }
+
+    /**
+     * Adds a track to the end of the play queue. It starts right away if nothing is
+     * loaded, and otherwise follows the tracks before it without a gap.
+     */
+    public void enqueue(String path, String name, Consumer<String> reporter) {
+        control.execute(() -> {
+            if (state.get() == PlaybackState.STOPPED) {
+                doPlay(path, name, reporter);
+                return;
+            }
+            synchronized (queue) {
+                queue.addLast(new QueuedTrack(path, name));
+                if (nextTrack == null) prefetchNext();
+            }
+        });
+    }
+
+    public void clearQueue() {
+        synchronized (queue) {
+            queue.clear();
+            discardPrefetched();
         }
     }
 
+    /**
+     * Sets how long consecutive tracks overlap; 0 plays them back to back.
+     */
+    public void setCrossfadeMillis(int millis) {
+        crossfadeMillis = Math.max(0, millis);
+    }
+
+    public OutputProfile getOutputProfile() {
+        return outputProfile;
+    }
+
+    /**
+     * Switches the output profile. The fill target follows at once; the line's buffer
+     * and write size change the next time a line is opened, e.g. on a seek.
+     */
+    public void setOutputProfile(OutputProfile profile) {
+        outputProfile = profile;
+    }
+
     public void pause() {
-        if (currentType == Type.MP3 && mp3Player != null) {
-            mp3PausedFrame = getCurrentFrame();
-            mp3Player.close();
-            statusReporter.accept("Paused " + fileName);
-        } else if (currentType == Type.WAV) {
-            wavStopped = true;
-            statusReporter.accept("Paused " + fileName);
+        control.execute(this::doPause);
+    }
+
+    /**
+     * Continues a paused track, or plays the last track again from the start once it has
+     * finished.
+     */
+    public void resume() {
+        control.execute(this::doResume);
+    }
+
+    public void stop() {
+        control.execute(this::doStop);
+    }
+
+    /**
+     * Moves to the given fraction of the current track, keeping it playing or paused.
+     * Only the latest of several seeks issued in quick succession is applied.
+     */
+    public void seek(float percent) {
+        if (pendingSeek.getAndSet(percent) == null) {
+            control.execute(this::doSeek);
         }
+    }
+
+    // commands, run on the control thread
 
-        isPaused = true;
+    private void doPlay(String path, String name, Consumer<String> reporter) {
+        doPlay(path, name, reporter, () -> PcmSource.open(path));
     }
 
-    public void resume() {
-        if (isFinished) {
-            play(currentPath, fileName, statusReporter);
-        } else {
-            isPaused = false;
-            if (currentType == Type.MP3) {
-                playMp3();
-                statusReporter.accept("Resumed " + fileName);
-            } else if (currentType == Type.WAV) {
-                playWav(wavPausedPos);
-                statusReporter.accept("Resumed " + fileName);
+    private void doPlay(String path, String name, Consumer<String> reporter, Callable<PcmSource> opener) {
+        haltOutput();
+        closeSource();
+        statusReporter = reporter;
+        currentPath = path;
+        fileName = name;
+        pausedFrame = 0;
+
+        try {
+            source = opener.call();
+        } catch (Exception e) {
+            reporter.accept("Error: " + e.getMessage());
+            transition(PlaybackState.STOPPED);
+            return;
+        }
+
+        startOutput(0);
+        transition(PlaybackState.PLAYING);
+        reporter.accept("Now playing: " + name);
+    }
+
+    private void doPause() {
+        if (state.get() != PlaybackState.PLAYING || outputTask == null) return;
+        synchronized (pauseLock) {
+            paused = true;
+            AudioSink out = line;
+            if (out != null) out.stop();
+        }
+        // the line has stopped, so this is where resume carries on from
+        pausedOutputFrame = getOutputFrame();
+        pausedFrame = getPlaybackFrame();
+        transition(PlaybackState.PAUSED);
+        statusReporter.accept("Paused " + fileName);
+    }
+
+    private void doResume() {
+        PlaybackState current = state.get();
+        if (current == PlaybackState.STOPPED && currentPath != null) {
+            doPlay(currentPath, fileName, statusReporter);
+        } else if (current == PlaybackState.PAUSED) {
+            if (outputTask != null) {
+                synchronized (pauseLock) {
+                    paused = false;
+                    AudioSink out = line;
+                    if (out != null) out.start();
+                    pauseLock.notifyAll();
+                }
+            } else {
+                // seeked while paused
+                startOutput(pausedFrame);
             }
+            transition(PlaybackState.PLAYING);
+            statusReporter.accept("Resumed " + fileName);
         }
     }
 
-    public void stop() {
-        isPaused = true;
-        if (currentType == Type.MP3 && mp3Player != null) {
-            mp3Player.close();
-        } else if (currentType == Type.WAV) {
-            wavStopped = true;
-            if (wavThread != null && wavThread.isAlive()) {
-                try {
-                    wavThread.join();
-                } catch (InterruptedException ignored) {}
+    private void doStop() {
+        haltOutput();
+        closeSource();
+        pausedFrame = 0;
+        transition(PlaybackState.STOPPED);
+    }
+
+    private void doSeek() {
+        Float percent = pendingSeek.getAndSet(null);
+        if (percent == null || state.get() == PlaybackState.STOPPED) return;
+        PcmSource playing = outputTrack != null ? outputTrack : source;
+        if (playing != null && !playing.isSeekable()) return;
+
+        if (outputTask != null) {
+            pausedOutputFrame = getOutputFrame();
+            if (haltOutput()) return;
+        }
+        long totalFrames = source.getFrameLength();
+        if (totalFrames > 0) {
+            pausedFrame = (long) (totalFrames * percent);
+        }
+        if (state.get() == PlaybackState.PLAYING) startOutput(pausedFrame);
+    }
+
+    /**
+     * Called by the output thread when it ran out of tracks or failed on its own.
+     */
+    private void onOutputEnded(Future<OutputResult> task) {
+        if (task == outputTask) haltOutput();
+    }
+
+    private void transition(PlaybackState next) {
+        if (state.getAndSet(next) != next) {
+            for (PlaybackListener listener : listeners) {
+                listener.stateChanged(next);
             }
         }
-        resetState();
     }
 
-    private void resetState() {
-        isPaused = true;
-        isFinished = true;
-        mp3PausedFrame = 0;
-        wavPausedPos = 0;
+    private void closeSource() {
+        if (source != null) {
+            closeQuietly(source);
+            source = null;
+        }
     }
 
-    public void seek(float percent) {
-        if (isFinished) return;
-        switch (currentType) {
-            case MP3 -> {
-                if (mp3TotalFrames > 0) {
-                    mp3PausedFrame = (int)(mp3TotalFrames * percent);
-                    resume();
-                }
+    private static void closeQuietly(PcmSource source) {
+        try {
+            source.close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Starts opening and pre-decoding the head of the queue. Caller holds the queue lock.
+     */
+    private void prefetchNext() {
+        QueuedTrack queued = queue.peekFirst();
+        if (queued == null) {
+            nextTrack = null;
+            return;
+        }
+        nextTrack = prefetcher.submit(() -> {
+            PcmSource next = PcmSource.open(queued.path);
+            AudioFormat format = next.getFormat();
+            int bytes = (int) (format.getFrameRate() * format.getFrameSize() * PREFETCH_MILLIS / 1000);
+            return new PrefetchedTrack(queued.path, queued.name, next, bytes);
+        });
+    }
+
+    /**
+     * Drops the prefetched head of the queue, closing it once the worker is done with it.
+     * Caller holds the queue lock.
+     */
+    private void discardPrefetched() {
+        Future<PrefetchedTrack> discarded = nextTrack;
+        nextTrack = null;
+        if (discarded == null) return;
+        // the worker is single-threaded, so this runs after the prefetch itself
+        prefetcher.submit(() -> {
+            try {
+                discarded.get().close();
+            } catch (Exception ignored) {}
+        });
+    }
+
+    /**
+     * Removes the head of the queue and returns it opened and pre-decoded, skipping tracks
+     * that fail to open.
+     *
+     * @param wait whether to wait for a prefetch that is still running
+     * @return the track, or null if the queue is empty or the head is not ready and wait is false
+     */
+    private PrefetchedTrack takeNext(boolean wait) {
+        while (true) {
+            Future<PrefetchedTrack> future;
+            synchronized (queue) {
+                if (queue.isEmpty()) return null;
+                if (nextTrack == null) prefetchNext();
+                future = nextTrack;
+                if (!wait && !future.isDone()) return null;
             }
-            case WAV -> {
-                if (wavLength > 0) {
-                    wavPausedPos = (long)(wavLength * percent);
-                    resume();
+
+            try {
+                PrefetchedTrack track = future.get();
+                synchronized (queue) {
+                    if (nextTrack == future) {
+                        queue.pollFirst();
+                        prefetchNext();
+                        return track;
+                    }
+                }
+                // the queue was cleared while we waited
+                closeQuietly(track);
+            } catch (ExecutionException e) {
+                statusReporter.accept("Error: " + e.getCause().getMessage());
+                synchronized (queue) {
+                    if (nextTrack == future) {
+                        queue.pollFirst();
+                        nextTrack = null;
+                    }
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
             }
-            default -> {}
         }
     }
 
-    private void playMp3() {
-        try {
-            if (mp3TotalFrames == 0)
-                mp3TotalFrames = estimateFrameCount(currentPath);
-
-            FileInputStream fis = new FileInputStream(currentPath);
-            mp3Player = new AdvancedPlayer(fis, new VisualizingAudioDevice());
-
-            mp3Thread = new Thread(() -> {
-                mp3StartTimeMillis = System.currentTimeMillis();
-                mp3Player.setPlayBackListener(new PlaybackListener() {
-                    @Override
-                    public void playbackFinished(PlaybackEvent evt) {
-                        if (!isPaused) {
-                            statusReporter.accept("Finished playing: " + fileName);
-                            resetState();
-                        }
-                    }
-                });
+    /**
+     * Puts a track that was taken for a crossfade back at the head of the queue.
+     */
+    private void requeue(PrefetchedTrack track) throws IOException {
+        track.seek(0);
+        synchronized (queue) {
+            queue.addFirst(new QueuedTrack(track.getPath(), track.getName()));
+            discardPrefetched();
+            nextTrack = CompletableFuture.completedFuture(track);
+        }
+    }
 
-                try {
-                    statusReporter.accept("Now playing: " + fileName);
-                    mp3Player.play(mp3PausedFrame, Integer.MAX_VALUE);
-                } catch (Exception e) {
-                    statusReporter.accept("Error: " + e.getMessage());
-                }
-            });
+    /**
+     * Starts the output thread on the current source. Runs on the control thread.
+     */
+    private void startOutput(long startAt) {
+        stopped = false;
+        CompletableFuture<OutputResult> task = new CompletableFuture<>();
+        PcmSource track = source;
+        String path = currentPath;
+        String name = fileName;
+        output.execute(() -> {
+            OutputResult result = runOutput(task, track, path, name, startAt);
+            task.complete(result);
+            if (!result.halted) control.execute(() -> onOutputEnded(task));
+        });
+        outputTask = task;
+    }
 
-            mp3Thread.start();
-        } catch (Exception e) {
-            statusReporter.accept("Error: " + e.getMessage());
+    /**
+     * Stops the output thread, waits for it, and takes back the track it was playing and
+     * the frame it reached. Runs on the control thread.
+     *
+     * @return true if playback had already come to an end, which leaves the player stopped
+     */
+    private boolean haltOutput() {
+        if (outputTask == null) return false;
+        stopped = true;
+        synchronized (pauseLock) {
+            pauseLock.notifyAll();
         }
+        OutputResult result = joinOutput();
+        outputTask = null;
+        paused = false;
+
+        source = result.track;
+        currentPath = result.path;
+        fileName = result.name;
+        pausedFrame = result.frame;
+        if (result.halted) return false;
+
+        if (result.error != null) {
+            statusReporter.accept("Error: " + result.error.getMessage());
+        } else {
+            statusReporter.accept("Finished playing: " + fileName);
+        }
+        closeSource();
+        pausedFrame = 0;
+        transition(PlaybackState.STOPPED);
+        return true;
     }
 
-    private int estimateFrameCount(String filePath) {
-        try (FileInputStream fis = new FileInputStream(filePath)) {
-            Bitstream bs = new Bitstream(fis);
-            int frames = 0;
-            while (bs.readFrame() != null) {
-                frames++;
-                bs.closeFrame();
+    private OutputResult joinOutput() {
+        while (true) {
+            try {
+                return outputTask.get(10, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // a write blocked on a paused line only returns once the line is flushed
+                AudioSink out = line;
+                if (paused && out != null) out.flush();
+            } catch (InterruptedException | ExecutionException e) {
+                return outputTask.join();
             }
-            return frames;
-        } catch (Exception e) {
-            return 0;
         }
     }
 
-    private void playWav(long timeMicros) {
-        try {
-            if (wavThread != null && wavThread.isAlive()) wavThread.join();
-
-            AudioInputStream originalStream = AudioSystem.getAudioInputStream(new File(currentPath));
-            AudioFormat baseFormat = originalStream.getFormat();
-            AudioFormat workingFormat = baseFormat;
-
-            if (workingFormat.getEncoding() != AudioFormat.Encoding.PCM_SIGNED) {
-                workingFormat = new AudioFormat(
-                    AudioFormat.Encoding.PCM_SIGNED,
-                    baseFormat.getSampleRate(),
-                    16,
-                    baseFormat.getChannels(),
-                    baseFormat.getChannels() * 2,
-                    baseFormat.getSampleRate(),
-                    false
-                );
-                originalStream = AudioSystem.getAudioInputStream(workingFormat, originalStream);
+    /**
+     * Waits while the player is paused.
+     *
+     * @return false if the output has been halted instead
+     */
+    private boolean awaitPlaying() throws InterruptedException {
+        synchronized (pauseLock) {
+            while (paused && !stopped) {
+                pauseLock.wait();
             }
+        }
+        return !stopped;
+    }
 
-            final AudioFormat finalFormat = workingFormat;
-            AudioInputStream audioStream = originalStream;
-            wavLength = (long)((audioStream.getFrameLength() * 1_000_000.0) / finalFormat.getFrameRate());
-            SourceDataLine line = AudioSystem.getSourceDataLine(finalFormat);
-            line.open(finalFormat);
-
-            wavStopped = false;
-            wavThread = new Thread(() -> {
-                try (audioStream) {
-                    byte[] buffer = new byte[2048];
-                    line.start();
-
-                    if (timeMicros > 0) {
-                        long skipBytes = (long)((timeMicros / 1_000_000.0) * finalFormat.getFrameRate() * finalFormat.getFrameSize());
-                        audioStream.skip(skipBytes);
-                    }
+    /**
+     * Called by the output thread when it moves on to a queued track.
+     */
+    private void onTrackStarted(Future<OutputResult> task, String path, String name) {
+        if (task != outputTask) return;
+        currentPath = path;
+        fileName = name;
+        statusReporter.accept("Now playing: " + name);
+    }
 
-                    int bytesRead;
-                    while (!wavStopped && !isPaused && (bytesRead = audioStream.read(buffer)) != -1) {
-                        line.write(buffer, 0, bytesRead);
-                        float[] samples = decodePCM(buffer, bytesRead, finalFormat);
-                        PCMBuffer.addSamples(samples);
-                        wavPausedPos += (long)((bytesRead / (float) finalFormat.getFrameSize()) / finalFormat.getFrameRate() * 1_000_000);
+    /**
+     * Writes the given track, and the queued tracks after it, to the output line until
+     * the queue runs out or playback is halted. Runs on the output thread.
+     */
+    private OutputResult runOutput(Future<OutputResult> self, PcmSource track, String path, String name, long startAt) {
+        PcmSource current = track;
+        AudioSink out = null;
+        PrefetchedTrack upcoming = null;
+        outputTrack = current;
+        try {
+            current.seek(startAt);
+            AudioFormat format = current.getFormat();
+            out = openLine(format, current, path, startAt);
+
+            int frameSize = format.getFrameSize();
+            byte[] buffer = new byte[OutputProfile.bytes(format, lineProfile.getChunkMillis())];
+            byte[] mixBuffer = new byte[buffer.length];
+            float[] samples = new float[buffer.length / frameSize];
+
+            long written = 0;
+            long trackFrame = startAt;
+            long fadeLength = 0;
+            long upcomingFrames = 0;
+
+            while (awaitPlaying()) {
+                long readStart = System.nanoTime();
+                int bytesRead = current.read(buffer, 0, buffer.length);
+                long readNanos = System.nanoTime() - readStart;
+                if (bytesRead == -1) {
+                    PrefetchedTrack next = upcoming != null ? upcoming : takeNext(true);
+                    if (next == null) break;
+                    if (!next.getFormat().matches(format) && !awaitPlaying()) {
+                        // halted while paused; the line cannot be drained until it plays
+                        requeue(next);
+                        upcoming = null;
+                        break;
                     }
+                    boolean mixed = fadeLength > 0;
+                    upcoming = null;
+                    fadeLength = 0;
+
+                    closeQuietly(current);
+                    current = next;
+                    outputTrack = next;
+                    path = next.getPath();
+                    name = next.getName();
+                    trackFrame = mixed ? upcomingFrames : 0;
+                    String startedPath = path;
+                    String startedName = name;
+                    control.execute(() -> onTrackStarted(self, startedPath, startedName));
+
+                    if (!next.getFormat().matches(format)) {
+                        // formats differ: let the last track play out, then reopen the line
+                        out.drain();
+                        out.stop();
+                        out.close();
+                        format = next.getFormat();
+                        frameSize = format.getFrameSize();
+                        out = openLine(format, next, path, 0);
+                        buffer = new byte[OutputProfile.bytes(format, lineProfile.getChunkMillis())];
+                        mixBuffer = new byte[buffer.length];
+                        samples = new float[buffer.length / frameSize];
+                        written = 0;
+                    } else if (!mixed) {
+                        addSegment(new Segment(written, 0, next, path));
+                    }
+                    continue;
+                }
 
-                    line.drain();
-                    line.stop();
-                    line.close();
-
-                    if (!isPaused && !wavStopped) {
-                        statusReporter.accept("Finished playing: " + fileName);
-                        resetState();
+                PlaybackMetrics.recordReadWait(readNanos);
+                int frames = bytesRead / frameSize;
+                long crossfadeFrames = (long) format.getFrameRate() * crossfadeMillis / 1000;
+                long length = current.getFrameLength();
+                if (upcoming == null && crossfadeFrames > 0 && length > 0 && trackFrame + frames > length - crossfadeFrames) {
+                    // never stall the output for a crossfade; without a ready track the change is just gapless
+                    upcoming = takeNext(false);
+                    if (upcoming != null && canCrossfade(format, upcoming.getFormat())) {
+                        fadeLength = Math.max(1, length - trackFrame);
+                        upcomingFrames = 0;
+                        addSegment(new Segment(written, 0, upcoming, upcoming.getPath()));
                     }
-                } catch (Exception e) {
-                    statusReporter.accept("Error: " + e.getMessage());
                 }
-            });
+                if (fadeLength > 0) {
+                    int mixRead = Math.max(0, upcoming.read(mixBuffer, 0, bytesRead));
+                    crossfade(buffer, mixBuffer, bytesRead, mixRead, upcomingFrames, fadeLength, format.getChannels());
+                    upcomingFrames += mixRead / frameSize;
+                }
+
+                awaitLineRoom(out, format, bytesRead, written > 0);
+                out.write(buffer, 0, bytesRead);
+                int frameCount = PcmConverter.toMono(buffer, bytesRead, format, samples);
+                PCMBuffer.addSamples(samples, 0, frameCount);
+                written += frames;
+                trackFrame += frames;
+            }
 
-            wavThread.start();
-            statusReporter.accept("Now playing: " + fileName);
+            // on a halt, discard what is buffered instead of playing it out
+            boolean halted = !awaitPlaying();
+            long frame = halted ? audibleFrameOf(current) : 0;
+            if (halted) out.flush(); else out.drain();
+            out.stop();
+            out.close();
+            if (upcoming != null) requeue(upcoming);
+            return new OutputResult(current, path, name, frame, halted, null);
         } catch (Exception e) {
-            statusReporter.accept("Error: " + e.getMessage());
+            if (out != null) out.close();
+            return new OutputResult(current, path, name, startAt, false, e);
+        } finally {
+            line = null;
+            outputTrack = null;
+        }
+    }
+
+    private AudioSink openLine(AudioFormat format, PcmSource track, String path, long trackStart) throws LineUnavailableException {
+        lineProfile = outputProfile;
+        lineTargetMillis = lineProfile.getTargetMillis();
+        lineTargetChanged = System.nanoTime();
+        AudioSink out = sinks.open(format, OutputProfile.bytes(format, lineProfile.getMaxMillis()));
+        PCMBuffer.reset(0);
+        synchronized (segments) {
+            segments.clear();
+            segments.add(new Segment(0, trackStart, track, path));
+        }
+        synchronized (pauseLock) {
+            line = out;
+            if (!paused) out.start();
         }
+        return out;
     }
 
     /**
-     * Converts raw PCM byte data into a normalized float array of audio samples.
+     * Moves the line's fill target after an underrun, a clean stretch or a profile change,
+     * then waits until length more bytes fit within it. Runs on the output thread.
      *
-     * Assumes 16-bit little-endian signed PCM format. Each 2-byte sample is decoded
-     * into a float in the range [-1.0, 1.0]
+     * @param primed whether the line has been written to, so that finding it empty is an underrun
+     */
+    private void awaitLineRoom(AudioSink out, AudioFormat format, int length, boolean primed) {
+        long now = System.nanoTime();
+        OutputProfile profile = outputProfile;
+        if (profile != lineProfile) {
+            lineProfile = profile;
+            lineTargetMillis = profile.getTargetMillis();
+            lineTargetChanged = now;
+        }
+        if (PlaybackMetrics.recordLineLevel(out.available(), out.getBufferSize(), primed)) {
+            lineTargetMillis = Math.min(profile.getMaxMillis(), lineTargetMillis * 2);
+            lineTargetChanged = now;
+        } else if (lineTargetMillis > profile.getTargetMillis()
+            && now - lineTargetChanged > TimeUnit.SECONDS.toNanos(RECOVERY_SECONDS)) {
+            lineTargetMillis = Math.max(profile.getTargetMillis(), lineTargetMillis / 2);
+            lineTargetChanged = now;
+        }
+
+        // a write beyond the line's buffer would block anyway, and one chunk must always fit
+        int target = Math.min(out.getBufferSize(), Math.max(length, OutputProfile.bytes(format, lineTargetMillis)));
+        long poll = TimeUnit.MILLISECONDS.toNanos(profile.getChunkMillis()) / 2;
+        while (!stopped && !paused && out.getBufferSize() - out.available() + length > target) {
+            LockSupport.parkNanos(poll);
+        }
+    }
+
+    private void addSegment(Segment segment) {
+        synchronized (segments) {
+            segments.add(segment);
+        }
+    }
+
+    private Segment audibleSegment() {
+        AudioSink out = line;
+        return out != null ? audibleSegment(out.getLongFramePosition()) : null;
+    }
+
+    /**
+     * @return the track segment that contains the given output line frame
+     */
+    private Segment audibleSegment(long linePosition) {
+        synchronized (segments) {
+            // drop segments that have been played out, but keep the current track's
+            while (segments.size() > 1 && segments.get(1).lineStart <= linePosition && segments.get(0).track != outputTrack) {
+                segments.remove(0);
+            }
+            Segment audible = segments.isEmpty() ? null : segments.get(0);
+            for (Segment segment : segments) {
+                if (segment.lineStart <= linePosition) audible = segment;
+            }
+            return audible;
+        }
+    }
+
+    /**
+     * Returns the audible frame of the given track, or the frame it will start at if the
+     * output line has not reached it yet (during a crossfade both tracks are audible).
+     */
+    private long audibleFrameOf(PcmSource track) {
+        AudioSink out = line;
+        long position = out != null ? out.getLongFramePosition() : 0;
+        synchronized (segments) {
+            for (Segment segment : segments) {
+                if (segment.track == track) return segment.trackStart + Math.max(0, position - segment.lineStart);
+            }
+        }
+        return pausedFrame;
+    }
+
+    private static boolean canCrossfade(AudioFormat format, AudioFormat next) {
+        return next.matches(format)
+            && format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED
+            && format.getSampleSizeInBits() == 16
+            && !format.isBigEndian();
+    }
+
+    /**
+     * Mixes 16-bit little-endian frames of the next track into data with a linear fade.
      *
-     * @param data   the raw PCM byte array
-     * @param length the number of valid bytes to decode
-     * @param format the AudioFormat of the input data
-     * @return a float array of decoded samples in the range [-1.0, 1.0]
+     * @param fadeOffset the number of frames of the fade that have already been mixed
+     */
+    private static void crossfade(byte[] data, byte[] next, int length, int nextLength,
+                                  long fadeOffset, long fadeLength, int channels) {
+        for (int i = 0; i + 1 < length; i += 2) {
+            long frame = fadeOffset + i / (2 * channels);
+            float gain = Math.min(1f, frame / (float) fadeLength);
+            int a = (short) ((data[i] & 0xFF) | (data[i + 1] << 8));
+            int b = i + 1 < nextLength ? (short) ((next[i] & 0xFF) | (next[i + 1] << 8)) : 0;
+            int mixed = Math.round(a * (1f - gain) + b * gain);
+            mixed = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mixed));
+            data[i] = (byte) mixed;
+            data[i + 1] = (byte) (mixed >> 8);
+        }
+    }
+
+    /**
+     * What the output thread hands back to the control thread when it exits.
+     */
+    private static final class OutputResult {
+        final PcmSource track;
+        final String path;
+        final String name;
+        final long frame;
+        // stopped on request, rather than out of tracks or failed
+        final boolean halted;
+        final Exception error;
+
+        OutputResult(PcmSource track, String path, String name, long frame, boolean halted, Exception error) {
+            this.track = track;
+            this.path = path;
+            this.name = name;
+            this.frame = frame;
+            this.halted = halted;
+            this.error = error;
+        }
+    }
+
+    private static final class QueuedTrack {
+        final String path;
+        final String name;
+
+        QueuedTrack(String path, String name) {
+            this.path = path;
+            this.name = name;
+        }
+    }
+
+    /**
+     * The stretch of the output line, starting at lineStart, that plays one track from
+     * trackStart onwards.
      */
-    private float[] decodePCM(byte[] data, int length, AudioFormat format) {
-        int sampleCount = length / 2;
-        float[] samples = new float[sampleCount];
-        for (int i = 0; i < sampleCount; i++) {
-            int low = data[2 * i] & 0xFF;
-            int high = data[2 * i + 1];
-            int sample = (high << 8) | low;
-            if (sample > 32767) sample -= 65536;
-            samples[i] = sample / 32768f;
+    private static final class Segment {
+        final long lineStart;
+        final long trackStart;
+        final PcmSource track;
+        final String path;
+
+        Segment(long lineStart, long trackStart, PcmSource track, String path) {
+            this.lineStart = lineStart;
+            this.trackStart = trackStart;
+            this.track = track;
+            this.path = path;
         }
-        return samples;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,60 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * AudioSink is where AudioPlayer writes its PCM: the few SourceDataLine operations the
+ * output thread and the playback clock use, so that playback can go somewhere other than
+ * a sound card.
+ *
+ * LineSink, the default, is a javax.sound.sampled SourceDataLine. SimulatedSink plays
+ * into memory against a clock of its own, for running the player where there is no
+ * audio device at all. Every method means what it means on a SourceDataLine.
+ */
+public interface AudioSink {
+    /**
+     * Factory opens a sink for each line AudioPlayer needs.
+     */
+    interface Factory {
+        /**
+         * Opens a sink for format with a buffer of about bufferBytes.
+         */
+        AudioSink open(AudioFormat format, int bufferBytes) throws LineUnavailableException;
+    }
+
+    AudioFormat getFormat();
+
+    int getBufferSize();
+
+    /**
+     * @return how many bytes can be written without blocking
+     */
+    int available();
+
+    /**
+     * @return the number of frames played since the sink was opened
+     */
+    long getLongFramePosition();
+
+    void start();
+
+    void stop();
+
+    /**
+     * Discards what is buffered, and lets a write blocked on a full buffer return.
+     */
+    void flush();
+
+    /**
+     * Waits until everything written has been played.
+     */
+    void drain();
+
+    void close();
+
+    /**
+     * Writes whole frames, blocking while the buffer is full.
+     *
+     * @return the number of bytes written, less than length only after a flush or close
+     */
+    int write(byte[] buffer, int offset, int length);
+}
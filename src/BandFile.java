@@ -0,0 +1,68 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * BandFile describes the binary layout of precomputed band frames: a fixed 64-byte
+ * little-endian header followed by frameCount frames of bands floats each.
+ *
+ * Frame t holds the bands of the fftSize-sample window that ends at sample t * hop, the
+ * same window the live visualizer analyzes at that playback position.
+ */
+public class BandFile {
+    public static final int MAGIC = 0x53444e42; // "BNDS"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+
+    public final int sampleRate;
+    public final int hop;
+    public final int fftSize;
+    public final int bands;
+    public final long frameCount;
+    public final long sourceSize;
+    public final long sourceModified;
+
+    public BandFile(int sampleRate, int hop, int fftSize, int bands, long frameCount,
+                    long sourceSize, long sourceModified) {
+        this.sampleRate = sampleRate;
+        this.hop = hop;
+        this.fftSize = fftSize;
+        this.bands = bands;
+        this.frameCount = frameCount;
+        this.sourceSize = sourceSize;
+        this.sourceModified = sourceModified;
+    }
+
+    /**
+     * @return the byte offset of frame t from the start of the file
+     */
+    public long frameOffset(long t) {
+        return HEADER_SIZE + t * bands * 4L;
+    }
+
+    public void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION)
+            .putInt(sampleRate).putInt(hop).putInt(fftSize).putInt(bands)
+            .putLong(frameCount).putLong(sourceSize).putLong(sourceModified);
+        header.clear();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    /**
+     * @return the header read from channel, or null if it is not a band file of this version
+     */
+    public static BandFile readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) return null;
+        }
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) return null;
+        return new BandFile(header.getInt(), header.getInt(), header.getInt(), header.getInt(),
+            header.getLong(), header.getLong(), header.getLong());
+    }
+}
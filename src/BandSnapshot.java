@@ -0,0 +1,37 @@
+/**
+ * BandSnapshot is an immutable copy of the band magnitudes of one visualizer frame.
+ *
+ * Snapshots are what the render thread hands to the event dispatch thread, so neither
+ * ever sees the other's working arrays.
+ */
+public final class BandSnapshot {
+    private final float[] magnitudes;
+    private final long nanoTime;
+
+    public BandSnapshot(float[] magnitudes) {
+        this(magnitudes, System.nanoTime());
+    }
+
+    /**
+     * @param nanoTime the System.nanoTime at which the magnitudes were analyzed
+     */
+    public BandSnapshot(float[] magnitudes, long nanoTime) {
+        this.magnitudes = magnitudes.clone();
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * @return the System.nanoTime at which the snapshot was taken
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    public int size() {
+        return magnitudes.length;
+    }
+
+    public float get(int band) {
+        return magnitudes[band];
+    }
+}
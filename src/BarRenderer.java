@@ -0,0 +1,77 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+
+/**
+ * BarRenderer draws band magnitudes as vertical green bars on black.
+ *
+ * It remembers the pixel height of every bar it has drawn, so that a following frame
+ * can be drawn onto the same image by repainting only the bars whose height changed.
+ * The bars are axis-aligned rectangles on whole pixels, so no antialiasing is needed.
+ * Not thread-safe.
+ */
+public class BarRenderer {
+    private static final Color BACKGROUND = Color.BLACK;
+    private static final Color BAR = Color.GREEN;
+
+    private final int[] barHeights;
+    private int width = -1;
+    private int height = -1;
+
+    public BarRenderer(int bands) {
+        this.barHeights = new int[bands];
+    }
+
+    /**
+     * Draws the whole frame: the background and every bar.
+     */
+    public void paintAll(Graphics2D g, BandSnapshot bands, int width, int height) {
+        this.width = width;
+        this.height = height;
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, width, height);
+
+        int barWidth = width / barHeights.length;
+        g.setColor(BAR);
+        for (int i = 0; i < barHeights.length; i++) {
+            barHeights[i] = barHeight(bands, i);
+            g.fillRect(i * barWidth, height - barHeights[i], barWidth - 2, barHeights[i]);
+        }
+    }
+
+    /**
+     * Draws a frame over the previous one, touching only the bars that changed height.
+     *
+     * @return the area that was drawn, or null if nothing changed
+     */
+    public Rectangle paintChanged(Graphics2D g, BandSnapshot bands, int width, int height) {
+        if (width != this.width || height != this.height) {
+            paintAll(g, bands, width, height);
+            return new Rectangle(0, 0, width, height);
+        }
+
+        int barWidth = width / barHeights.length;
+        Rectangle dirty = null;
+        for (int i = 0; i < barHeights.length; i++) {
+            int old = barHeights[i];
+            int now = barHeight(bands, i);
+            if (now == old) continue;
+            barHeights[i] = now;
+
+            // only the strip between the old and the new top changes colour
+            int x = i * barWidth;
+            int top = height - Math.max(old, now);
+            int strip = Math.abs(now - old);
+            g.setColor(now > old ? BAR : BACKGROUND);
+            g.fillRect(x, top, barWidth - 2, strip);
+
+            Rectangle bar = new Rectangle(x, top, barWidth, strip);
+            dirty = dirty == null ? bar : dirty.union(bar);
+        }
+        return dirty;
+    }
+
+    private int barHeight(BandSnapshot bands, int i) {
+        return Math.max(0, (int) (bands.get(i) * height));
+    }
+}
@@ -0,0 +1,105 @@
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * BeatGrid holds the onsets and beats of a whole track, found ahead of playback.
+ *
+ * It runs a BeatTracker over the band frames of the track's Spectrogram in one
+ * sequential pass, so the only decoding involved is the one that built the spectrogram,
+ * which the SpectrogramCache does anyway. Timestamps are sample frames of the track.
+ *
+ *     java BeatGrid <input.mp3|input.wav>
+ */
+public class BeatGrid {
+    private final float tempo;
+    private final long[] beats;
+    private final long[] onsets;
+
+    private BeatGrid(float tempo, long[] beats, long[] onsets) {
+        this.tempo = tempo;
+        this.beats = beats;
+        this.onsets = onsets;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: java BeatGrid <input.mp3|input.wav>");
+            System.exit(2);
+        }
+        Spectrogram spectrogram = SpectrogramCache.get(Path.of(args[0])).get();
+        long start = System.nanoTime();
+        BeatGrid grid = of(spectrogram);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d beats at %.1f BPM, %d onsets, found in %.3f s%n",
+            grid.getBeatCount(), grid.getTempo(), grid.getOnsetCount(), seconds);
+    }
+
+    /**
+     * Tracks the beats of every frame of spectrogram.
+     */
+    public static BeatGrid of(Spectrogram spectrogram) {
+        BandFile header = spectrogram.getHeader();
+        Collector collector = new Collector();
+        BeatTracker tracker = new BeatTracker(header.bands, header.hop, header.sampleRate, collector);
+
+        float[] bandMagnitudes = new float[header.bands];
+        for (long t = 0; t < header.frameCount; t++) {
+            spectrogram.read(t * header.hop, bandMagnitudes);
+            tracker.process(bandMagnitudes);
+        }
+        return new BeatGrid(tracker.getTempo(), Arrays.copyOf(collector.beats, collector.beatCount),
+            Arrays.copyOf(collector.onsets, collector.onsetCount));
+    }
+
+    /**
+     * @return the tempo at the end of the track, or 0 if none was found
+     */
+    public float getTempo() {
+        return tempo;
+    }
+
+    public int getBeatCount() {
+        return beats.length;
+    }
+
+    public long getBeat(int index) {
+        return beats[index];
+    }
+
+    public int getOnsetCount() {
+        return onsets.length;
+    }
+
+    public long getOnset(int index) {
+        return onsets[index];
+    }
+
+    /**
+     * @return the index of the first beat at or after sampleFrame, or getBeatCount() if
+     *         there is none
+     */
+    public int nextBeat(long sampleFrame) {
+        int index = Arrays.binarySearch(beats, sampleFrame);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static final class Collector implements BeatListener {
+        long[] beats = new long[256];
+        int beatCount;
+        long[] onsets = new long[256];
+        int onsetCount;
+
+        @Override
+        public void onset(long sampleFrame, float strength) {
+            if (onsetCount == onsets.length) onsets = Arrays.copyOf(onsets, onsetCount * 2);
+            onsets[onsetCount++] = sampleFrame;
+        }
+
+        @Override
+        public void beat(long sampleFrame, float bpm) {
+            if (beatCount == beats.length) beats = Arrays.copyOf(beats, beatCount * 2);
+            beats[beatCount++] = sampleFrame;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * BeatListener is notified of the onsets and beats a BeatTracker finds.
+ *
+ * Timestamps are sample frames: output line frames for the live tracker on an
+ * AnalysisBus, which runs callbacks on its analysis thread, and track frames for a
+ * BeatGrid.
+ */
+public interface BeatListener {
+    /**
+     * @param strength how far the spectral flux rose above the adaptive threshold
+     */
+    void onset(long sampleFrame, float strength);
+
+    void beat(long sampleFrame, float bpm);
+}
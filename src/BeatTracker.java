@@ -0,0 +1,273 @@
+import java.util.Arrays;
+
+/**
+ * BeatTracker finds onsets and beats in a stream of band frames, one frame per hop.
+ *
+ * Onsets are peaks of the spectral flux, the summed rise of the log-compressed bands
+ * from one frame to the next, that stand out above an adaptive threshold: the mean of
+ * the last second of flux plus a multiple of its standard deviation. The flux above its
+ * mean is also the onset envelope the tempo is taken from. Its autocorrelation over the
+ * lags of 60 to 200 BPM is kept as a decaying sum, updated in constant time per lag and
+ * frame, and the strongest lag, weighted towards 120 BPM against octave errors, is the
+ * beat period. Beats follow that period: an onset close to where the next beat is due
+ * becomes the beat and resets the phase, any other onset nudges the phase towards
+ * itself, and if no onset comes the beat is placed where it was due, until the music
+ * goes quiet.
+ *
+ * Every frame costs the same, O(bands + lags), and nothing is allocated after
+ * construction, so a live caller can run it on the analysis thread. Events are reported
+ * one hop after the frame they belong to, since a peak is only known to be one once the
+ * flux falls again. Not thread-safe.
+ */
+public class BeatTracker {
+    public static final float MIN_BPM = 60f;
+    public static final float MAX_BPM = 200f;
+    private static final float PREFERRED_BPM = 120f;
+    // the tempo prior's width in octaves
+    private static final float PRIOR_WIDTH = 1f;
+    private static final float COMPRESSION = 100f;
+    private static final float SENSITIVITY = 1.5f;
+    private static final float MIN_FLUX = 0.05f;
+    private static final float THRESHOLD_SECONDS = 1f;
+    private static final float MIN_ONSET_GAP_SECONDS = 0.05f;
+    private static final float TEMPO_SECONDS = 4f;
+    // how early or late, as a fraction of the period, an onset may be and still be the beat
+    private static final float TOLERANCE = 0.1f;
+    private static final float PHASE_GAIN = 0.25f;
+    private static final float STRENGTH_SMOOTHING = 0.2f;
+    // beats in a row placed without an onset before the phase is given up
+    private static final int MAX_MISSED_BEATS = 4;
+    private static final float SILENCE_SECONDS = 2f;
+
+    private final int bands;
+    private final int hop;
+    private final float sampleRate;
+    private final BeatListener listener;
+
+    private final int minLag;
+    private final int maxLag;
+    private final int minOnsetGap;
+    private final int silence;
+    private final float decay;
+    private final float[] prior;
+
+    private final float[] previous;
+    private final float[] fluxHistory;
+    private double fluxSum;
+    private double fluxSquares;
+    private final float[] envelope;
+    private final float[] autocorrelation;
+
+    // frame t is the frame whose window ends at origin + t * hop
+    private long origin;
+    private long frame;
+    private float lastFlux;
+    private float lastThreshold;
+    private float flux2;
+    private long lastOnset;
+    private double nextBeat;
+    private float period;
+    // typical strength of the onsets that fell on a beat
+    private float beatStrength;
+    private int missedBeats;
+
+    public BeatTracker(int bands, int hop, float sampleRate, BeatListener listener) {
+        this.bands = bands;
+        this.hop = hop;
+        this.sampleRate = sampleRate;
+        this.listener = listener;
+
+        float frameRate = sampleRate / hop;
+        this.minLag = Math.max(1, (int) Math.floor(frameRate * 60 / MAX_BPM));
+        this.maxLag = Math.max(minLag + 2, (int) Math.ceil(frameRate * 60 / MIN_BPM));
+        this.minOnsetGap = Math.max(1, Math.round(frameRate * MIN_ONSET_GAP_SECONDS));
+        this.silence = Math.round(frameRate * SILENCE_SECONDS);
+        this.decay = (float) Math.exp(-1 / (frameRate * TEMPO_SECONDS));
+
+        this.prior = new float[maxLag + 1];
+        for (int lag = minLag; lag <= maxLag; lag++) {
+            double octaves = Math.log(bpm(lag) / PREFERRED_BPM) / Math.log(2) / PRIOR_WIDTH;
+            prior[lag] = (float) Math.exp(-0.5 * octaves * octaves);
+        }
+
+        this.previous = new float[bands];
+        this.fluxHistory = new float[Math.max(2, Math.round(frameRate * THRESHOLD_SECONDS))];
+        this.envelope = new float[maxLag + 1];
+        this.autocorrelation = new float[maxLag + 1];
+        reset(0);
+    }
+
+    public int getHop() {
+        return hop;
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Forgets everything heard so far, e.g. after a seek, and numbers the next frame as
+     * the one whose window ends at sample frame origin.
+     */
+    public void reset(long origin) {
+        this.origin = origin;
+        frame = 0;
+        Arrays.fill(previous, 0f);
+        Arrays.fill(fluxHistory, 0f);
+        fluxSum = 0;
+        fluxSquares = 0;
+        Arrays.fill(envelope, 0f);
+        Arrays.fill(autocorrelation, 0f);
+        lastFlux = 0f;
+        lastThreshold = Float.MAX_VALUE;
+        flux2 = 0f;
+        lastOnset = Long.MIN_VALUE / 2;
+        nextBeat = Double.NaN;
+        period = 0f;
+        beatStrength = 0f;
+        missedBeats = 0;
+    }
+
+    /**
+     * @return the current tempo estimate, or 0 until enough has been heard
+     */
+    public float getTempo() {
+        return period > 0 ? bpm(period) : 0f;
+    }
+
+    /**
+     * @return the sample frame the next beat is expected at, or -1 if none is expected
+     */
+    public long getNextBeat() {
+        return Double.isNaN(nextBeat) ? -1 : sampleFrame(nextBeat);
+    }
+
+    /**
+     * Takes the next band frame, whose window ends hop samples after the previous one's.
+     */
+    public void process(float[] bandMagnitudes) {
+        float flux = 0f;
+        for (int i = 0; i < bands; i++) {
+            float compressed = (float) Math.log1p(COMPRESSION * bandMagnitudes[i]);
+            // only rising energy marks an onset
+            if (frame > 0) flux += Math.max(0f, compressed - previous[i]);
+            previous[i] = compressed;
+        }
+
+        // statistics of the frames before this one
+        int window = (int) Math.min(frame, fluxHistory.length);
+        float mean = window > 0 ? (float) (fluxSum / window) : 0f;
+        float deviation = window > 1 ? (float) Math.sqrt(Math.max(0, fluxSquares / window - mean * mean)) : 0f;
+        float threshold = Math.max(MIN_FLUX, mean + SENSITIVITY * deviation);
+
+        int slot = (int) (frame % fluxHistory.length);
+        fluxSum += flux - fluxHistory[slot];
+        fluxSquares += (double) flux * flux - (double) fluxHistory[slot] * fluxHistory[slot];
+        fluxHistory[slot] = flux;
+
+        updateTempo(Math.max(0f, flux - mean));
+
+        // the previous frame is an onset if its flux was a peak above its threshold
+        long candidate = frame - 1;
+        boolean onset = candidate >= 1 && lastFlux > lastThreshold && lastFlux >= flux2 && lastFlux > flux
+            && candidate - lastOnset >= minOnsetGap;
+        if (onset) {
+            lastOnset = candidate;
+            listener.onset(sampleFrame(candidate), lastFlux - lastThreshold);
+        }
+        if (frame >= 1) trackBeat(candidate, onset ? lastFlux - lastThreshold : 0f);
+
+        flux2 = lastFlux;
+        lastFlux = flux;
+        lastThreshold = threshold;
+        frame++;
+    }
+
+    /**
+     * Adds one value of the onset envelope to the decaying autocorrelation and picks
+     * the period from it.
+     */
+    private void updateTempo(float value) {
+        int length = envelope.length;
+        int now = (int) (frame % length);
+        envelope[now] = value;
+        for (int lag = minLag; lag <= maxLag; lag++) {
+            int then = now - lag;
+            if (then < 0) then += length;
+            autocorrelation[lag] = autocorrelation[lag] * decay + value * envelope[then];
+        }
+
+        // wait until the longest lag has been seen a couple of times
+        if (frame < 2L * maxLag) return;
+        int best = -1;
+        float bestScore = 0f;
+        for (int lag = minLag; lag <= maxLag; lag++) {
+            float score = autocorrelation[lag] * prior[lag];
+            if (score > bestScore) {
+                bestScore = score;
+                best = lag;
+            }
+        }
+        if (best < 0) return;
+
+        // a parabola through the peak and its neighbours places it between lags
+        float refined = best;
+        if (best > minLag && best < maxLag) {
+            float y0 = autocorrelation[best - 1] * prior[best - 1];
+            float y2 = autocorrelation[best + 1] * prior[best + 1];
+            float curvature = y0 - 2 * bestScore + y2;
+            if (curvature < 0) refined += 0.5f * (y0 - y2) / curvature;
+        }
+        period = refined;
+    }
+
+    /**
+     * @param strength the strength of the onset at frame current, or 0 if there is none
+     */
+    private void trackBeat(long current, float strength) {
+        if (period <= 0) return;
+        double tolerance = TOLERANCE * period;
+
+        if (strength > 0) {
+            // onsets much weaker than the ones on the beat only count for as much
+            float weight = beatStrength > 0 ? Math.min(1f, strength / beatStrength) : 1f;
+            if (Double.isNaN(nextBeat) || Math.abs(current - nextBeat) <= tolerance && weight >= 0.5f) {
+                listener.beat(sampleFrame(current), getTempo());
+                nextBeat = current + period;
+                missedBeats = 0;
+                beatStrength = beatStrength > 0 ? beatStrength + STRENGTH_SMOOTHING * (strength - beatStrength) : strength;
+                return;
+            }
+            // an onset near but not on the beat pulls the phase a little towards it;
+            // onsets halfway between beats are syncopation and leave it alone
+            double error = current - nextBeat;
+            if (error < -0.5 * period) error += period;
+            double distance = error / (0.25 * period);
+            nextBeat += PHASE_GAIN * weight * Math.exp(-0.5 * distance * distance) * error;
+        } else if (!Double.isNaN(nextBeat) && current > nextBeat + tolerance) {
+            if (current - lastOnset > silence || missedBeats >= MAX_MISSED_BEATS) {
+                // nothing to follow, or following the wrong phase; the next onset
+                // starts a new one
+                nextBeat = Double.NaN;
+                beatStrength = 0f;
+                missedBeats = 0;
+            } else {
+                listener.beat(sampleFrame(nextBeat), getTempo());
+                nextBeat += period;
+                missedBeats++;
+            }
+        }
+    }
+
+    /**
+     * @return the sample frame in the middle of the hop that frame t added to its window,
+     *         where whatever raised the flux of frame t began
+     */
+    private long sampleFrame(double t) {
+        return origin + Math.round((t - 0.5) * hop);
+    }
+
+    private float bpm(double lag) {
+        return (float) (60 * sampleRate / (lag * hop));
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.Arrays;
+
+/**
+ * ConstantQAnalyzer tracks the energy of log-spaced bands sample by sample with a bank of
+ * sliding DFT bins, an alternative to SpectrumAnalyzer's equally wide FFT bands.
+ *
+ * Each band is a single DFT bin over its own window length, chosen so that every band
+ * spans the same fraction of an octave (constant Q): bass bands look at a long window and
+ * resolve a few hertz, treble bands at a short one. A bin is updated in constant time per
+ * sample from its previous value, the new sample and the sample leaving its window, so
+ * the cost depends on the sample rate and band count only, never on how often the bands
+ * are read. A damping factor just below one keeps the recursions stable in floating point.
+ *
+ * Not thread-safe.
+ */
+public class ConstantQAnalyzer {
+    public static final float MIN_FREQUENCY = 30f;
+    public static final float MAX_FREQUENCY = 16000f;
+    private static final double DAMPING = 0.999999;
+    // roughly matches the bar heights of the FFT path for typical music
+    private static final float GAIN = 4f;
+    private static final float MIN_CLAMP = 0.02f;
+    private static final float MAX_CLAMP = 1.0f;
+
+    private final float sampleRate;
+    private final int bands;
+
+    // per band: window length, rotation per sample, damping over a whole window
+    private final int[] lengths;
+    private final double[] rotationRe;
+    private final double[] rotationIm;
+    private final double[] windowDamping;
+    private final float[] scale;
+
+    // per band: current bin value
+    private final double[] binRe;
+    private final double[] binIm;
+
+    private final int longest;
+    private final float[] history;
+    private final int mask;
+    private long count;
+
+    public ConstantQAnalyzer(float sampleRate, int bands) {
+        this.sampleRate = sampleRate;
+        this.bands = bands;
+        this.lengths = new int[bands];
+        this.rotationRe = new double[bands];
+        this.rotationIm = new double[bands];
+        this.windowDamping = new double[bands];
+        this.scale = new float[bands];
+        this.binRe = new double[bands];
+        this.binIm = new double[bands];
+
+        double maxFrequency = Math.min(MAX_FREQUENCY, sampleRate * 0.45);
+        double octaves = Math.log(maxFrequency / MIN_FREQUENCY) / Math.log(2);
+        double bandsPerOctave = Math.max(1, bands - 1) / octaves;
+        double q = 1 / (Math.pow(2, 1 / bandsPerOctave) - 1);
+        // the band frequency is bin m of a length-N DFT, with m about Q cycles per window
+        int cycles = (int) Math.max(1, Math.round(q));
+
+        int longest = 1;
+        for (int k = 0; k < bands; k++) {
+            double frequency = MIN_FREQUENCY * Math.pow(maxFrequency / MIN_FREQUENCY, k / (double) Math.max(1, bands - 1));
+            int length = (int) Math.max(cycles, Math.round(cycles * sampleRate / frequency));
+            double omega = 2 * Math.PI * cycles / length;
+            lengths[k] = length;
+            rotationRe[k] = DAMPING * Math.cos(omega);
+            rotationIm[k] = DAMPING * Math.sin(omega);
+            windowDamping[k] = Math.pow(DAMPING, length);
+            // a full-scale sine reads as amplitude 1 before the gain
+            scale[k] = 2f / length;
+            longest = Math.max(longest, length);
+        }
+
+        this.longest = longest;
+        int capacity = Integer.highestOneBit(longest) << 1;
+        this.history = new float[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getBands() {
+        return bands;
+    }
+
+    /**
+     * @return the number of samples the longest band looks back over
+     */
+    public int getHistoryLength() {
+        return longest;
+    }
+
+    /**
+     * Forgets all samples, as if the analyzer had only seen silence.
+     */
+    public void reset() {
+        Arrays.fill(history, 0f);
+        Arrays.fill(binRe, 0);
+        Arrays.fill(binIm, 0);
+        count = 0;
+    }
+
+    /**
+     * Feeds length mono samples starting at offset.
+     */
+    public void process(float[] samples, int offset, int length) {
+        for (int n = 0; n < length; n++) {
+            float x = samples[offset + n];
+            history[(int) (count & mask)] = x;
+
+            // sample by sample: the bands' recursions are independent and overlap in the pipeline
+            for (int k = 0; k < bands; k++) {
+                float leaving = history[(int) ((count - lengths[k]) & mask)];
+                double re = binRe[k];
+                double im = binIm[k];
+                binRe[k] = rotationRe[k] * re - rotationIm[k] * im + x - windowDamping[k] * leaving;
+                binIm[k] = rotationIm[k] * re + rotationRe[k] * im;
+            }
+            count++;
+        }
+    }
+
+    /**
+     * Writes the current magnitude of every band into bandMagnitudes, lowest band first.
+     */
+    public void bands(float[] bandMagnitudes) {
+        for (int k = 0; k < bands; k++) {
+            float magnitude = (float) Math.sqrt(binRe[k] * binRe[k] + binIm[k] * binIm[k]) * scale[k] * GAIN;
+
+            // clamp magnitude
+            bandMagnitudes[k] = Math.max(MIN_CLAMP, Math.min(MAX_CLAMP, magnitude));
+        }
+    }
+}
@@ -0,0 +1,217 @@
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * DecodeAheadSource runs another PcmSource on a decoder thread of its own, which keeps a
+ * bounded queue of PCM chunks filled a few hundred milliseconds ahead of the reader.
+ *
+ * Reads only take decoded chunks off the queue, so a decoder that falls behind for a
+ * moment under CPU contention is absorbed by the queue instead of starving the output
+ * line. When the queue is full the decoder simply waits for the reader, so a reader that
+ * stops reading (a paused player) keeps the decoder and everything it has decoded alive
+ * and can carry on at once. A seek to the frame the reader is already at is free; any
+ * other seek discards the queue and repositions the underlying source.
+ *
+ * Reads and seeks must come from one thread at a time.
+ */
+public class DecodeAheadSource implements PcmSource {
+    public static final int AHEAD_MILLIS = 400;
+    private static final int CHUNK_MILLIS = 50;
+
+    private final PcmSource source;
+    private final AudioFormat format;
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> filled;
+    private final Thread decoder;
+
+    // held by the decoder while it reads the source, and by seek and close to get it out of the way
+    private final ReentrantLock decodeLock = new ReentrantLock();
+    // the decoder waits on this at the end of the source
+    private final Object endOfSource = new Object();
+    // bumped by every real seek; chunks decoded before it are dropped
+    private volatile int generation;
+    private volatile boolean closed;
+
+    // reader state
+    private Chunk current;
+    private int currentOffset;
+    private long position;
+
+    public DecodeAheadSource(PcmSource source) {
+        this.source = source;
+        this.format = source.getFormat();
+        int frameSize = format.getFrameSize();
+        int chunkBytes = Math.max(1, (int) (format.getFrameRate() * CHUNK_MILLIS / 1000)) * frameSize;
+        int chunks = Math.max(2, AHEAD_MILLIS / CHUNK_MILLIS);
+        this.free = new ArrayBlockingQueue<>(chunks);
+        this.filled = new ArrayBlockingQueue<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            free.add(new Chunk(chunkBytes));
+        }
+
+        decoder = new Thread(this::decodeLoop, "decode-ahead");
+        decoder.setDaemon(true);
+        decoder.start();
+    }
+
+    private void decodeLoop() {
+        try {
+            while (!closed) {
+                Chunk chunk = free.take();
+                decodeLock.lock();
+                try {
+                    if (closed) return;
+                    chunk.generation = generation;
+                    chunk.error = null;
+                    try {
+                        chunk.length = fill(chunk.data);
+                    } catch (IOException e) {
+                        chunk.length = -1;
+                        chunk.error = e;
+                    }
+                } finally {
+                    decodeLock.unlock();
+                }
+                // there are only as many chunks as the queue holds, so this never blocks
+                filled.put(chunk);
+                if (chunk.length == -1) awaitSeek(chunk.generation);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Reads from the source until data is full or the source ends, timing each read as the
+     * decode it is.
+     *
+     * @return the number of bytes read, or -1 if the source had already ended
+     */
+    private int fill(byte[] data) throws IOException {
+        int length = 0;
+        while (length < data.length) {
+            long start = System.nanoTime();
+            int n = source.read(data, length, data.length - length);
+            if (n == -1) break;
+            PlaybackMetrics.recordDecode(System.nanoTime() - start, n);
+            length += n;
+        }
+        return length > 0 || data.length == 0 ? length : -1;
+    }
+
+    /**
+     * Parks the decoder after the end of the source until the reader seeks or closes.
+     */
+    private void awaitSeek(int ended) throws InterruptedException {
+        synchronized (endOfSource) {
+            while (!closed && generation == ended) {
+                endOfSource.wait();
+            }
+        }
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return source.getFrameLength();
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return source.isSeekable();
+    }
+
+    @Override
+    public void seek(long frame) throws IOException {
+        if (frame == position) return;
+        decodeLock.lock();
+        try {
+            generation++;
+            position = frame;
+            source.seek(frame);
+        } finally {
+            decodeLock.unlock();
+        }
+        synchronized (endOfSource) {
+            endOfSource.notifyAll();
+        }
+
+        // everything queued is from before the seek
+        if (current != null) recycle();
+        Chunk stale;
+        while ((stale = filled.poll()) != null) {
+            free.add(stale);
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int frameSize = format.getFrameSize();
+        while (true) {
+            if (current == null) current = nextChunk();
+            if (current.length == -1) {
+                if (current.error != null) throw new IOException(current.error.getMessage(), current.error);
+                return -1;
+            }
+            if (currentOffset < current.length) break;
+            recycle();
+        }
+
+        int n = Math.min(length - length % frameSize, current.length - currentOffset);
+        System.arraycopy(current.data, currentOffset, buffer, offset, n);
+        currentOffset += n;
+        position += n / frameSize;
+        return n;
+    }
+
+    private Chunk nextChunk() throws IOException {
+        try {
+            while (true) {
+                Chunk chunk = filled.take();
+                if (chunk.generation == generation) return chunk;
+                free.add(chunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void recycle() {
+        free.add(current);
+        current = null;
+        currentOffset = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        decodeLock.lock();
+        try {
+            // the decoder is not inside the source, so the interrupt cannot reach its I/O
+            decoder.interrupt();
+            source.close();
+        } finally {
+            decodeLock.unlock();
+        }
+    }
+
+    private static final class Chunk {
+        final byte[] data;
+        int length;
+        int generation;
+        IOException error;
+
+        Chunk(int bytes) {
+            data = new byte[bytes];
+        }
+    }
+}
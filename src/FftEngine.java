@@ -0,0 +1,165 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FftEngine is a reusable, allocation-free FFT for real-valued audio windows.
+ *
+ * Each transform size shares a cached plan (bit-reversal table, sine/cosine table and
+ * window coefficients) computed directly from Math.sin/Math.cos, so twiddles carry no
+ * accumulated rounding error. A real input of size N is packed into an N/2-point complex
+ * transform and split afterwards, which halves the work of transforming it as complex data.
+ *
+ * Windowing and magnitudes go through Kernels, so they run as SIMD code where available.
+ *
+ * An engine owns its scratch buffers and is not thread-safe; use one per analysis thread.
+ */
+public class FftEngine {
+    public enum WindowType { RECTANGULAR, HANN, BLACKMAN }
+
+    private static final Map<Integer, Plan> PLANS = new ConcurrentHashMap<>();
+
+    private final int size;
+    private final int half;
+    private final Plan plan;
+    private final float[] window;
+    private final float[] windowed;
+
+    // N/2-point complex scratch
+    private final float[] zRe;
+    private final float[] zIm;
+
+    // spectrum bins 0..N/2 of the last transform
+    private final float[] real;
+    private final float[] imag;
+
+    public FftEngine(int size, WindowType windowType) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two >= 4: " + size);
+        }
+        this.size = size;
+        this.half = size / 2;
+        this.plan = PLANS.computeIfAbsent(size, Plan::new);
+        this.window = plan.windows[windowType.ordinal()];
+        this.windowed = new float[size];
+        this.zRe = new float[half];
+        this.zIm = new float[half];
+        this.real = new float[half + 1];
+        this.imag = new float[half + 1];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the real parts of bins 0..size/2 of the last transform
+     */
+    public float[] real() {
+        return real;
+    }
+
+    /**
+     * @return the imaginary parts of bins 0..size/2 of the last transform
+     */
+    public float[] imag() {
+        return imag;
+    }
+
+    /**
+     * Windows size samples starting at offset and transforms them into real()/imag().
+     */
+    public void transform(float[] samples, int offset) {
+        Kernels.multiply(samples, offset, window, windowed, size);
+
+        // pack even samples into the real part and odd samples into the imaginary part
+        int[] bitReverse = plan.bitReverse;
+        for (int i = 0; i < half; i++) {
+            int j = bitReverse[i];
+            zRe[j] = windowed[2 * i];
+            zIm[j] = windowed[2 * i + 1];
+        }
+
+        float[] cos = plan.cos;
+        float[] sin = plan.sin;
+        for (int len = 2; len <= half; len <<= 1) {
+            int halfLen = len >> 1;
+            int stride = size / len;
+            for (int i = 0; i < half; i += len) {
+                for (int j = 0; j < halfLen; j++) {
+                    float wR = cos[j * stride];
+                    float wI = -sin[j * stride];
+                    int u = i + j;
+                    int v = u + halfLen;
+                    float tR = zRe[v] * wR - zIm[v] * wI;
+                    float tI = zRe[v] * wI + zIm[v] * wR;
+                    zRe[v] = zRe[u] - tR;
+                    zIm[v] = zIm[u] - tI;
+                    zRe[u] += tR;
+                    zIm[u] += tI;
+                }
+            }
+        }
+
+        // split the packed spectrum into the spectrum of the real input
+        for (int k = 0; k <= half; k++) {
+            int a = k == half ? 0 : k;
+            int b = k == 0 ? 0 : half - k;
+            float aR = zRe[a], aI = zIm[a];
+            float bR = zRe[b], bI = zIm[b];
+
+            float eR = 0.5f * (aR + bR);
+            float eI = 0.5f * (aI - bI);
+            float oR = 0.5f * (aI + bI);
+            float oI = -0.5f * (aR - bR);
+
+            float wR = cos[k];
+            float wI = -sin[k];
+            real[k] = eR + wR * oR - wI * oI;
+            imag[k] = eI + wR * oI + wI * oR;
+        }
+    }
+
+    /**
+     * Transforms size samples starting at offset and writes the magnitudes of bins
+     * 0..size/2 - 1 into out.
+     */
+    public void magnitudes(float[] samples, int offset, float[] out) {
+        transform(samples, offset);
+        Kernels.magnitudes(real, imag, out, half);
+    }
+
+    /**
+     * Shared, immutable tables for one transform size.
+     */
+    private static final class Plan {
+        final int[] bitReverse;
+        final float[] cos;
+        final float[] sin;
+        final float[][] windows;
+
+        Plan(int size) {
+            int half = size / 2;
+            int bits = Integer.numberOfTrailingZeros(half);
+            bitReverse = new int[half];
+            for (int i = 0; i < half; i++) {
+                bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+            }
+
+            cos = new float[half + 1];
+            sin = new float[half + 1];
+            for (int k = 0; k <= half; k++) {
+                double angle = 2 * Math.PI * k / size;
+                cos[k] = (float) Math.cos(angle);
+                sin[k] = (float) Math.sin(angle);
+            }
+
+            windows = new float[WindowType.values().length][size];
+            for (int n = 0; n < size; n++) {
+                double phase = 2 * Math.PI * n / size;
+                windows[WindowType.RECTANGULAR.ordinal()][n] = 1f;
+                windows[WindowType.HANN.ordinal()][n] = (float) (0.5 - 0.5 * Math.cos(phase));
+                windows[WindowType.BLACKMAN.ordinal()][n] = (float) (0.42 - 0.5 * Math.cos(phase) + 0.08 * Math.cos(2 * phase));
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Kernels runs the loops that execute once per sample or per bin (PCM conversion,
+ * windowing, FFT magnitudes and band sums) as SIMD code from VectorKernels where that is
+ * available, and as the plain loops from ScalarKernels everywhere else.
+ *
+ * The SIMD versions are used when the JVM was started with
+ *
+ *     java --add-modules jdk.incubator.vector ...
+ *
+ * the CPU has vectors of at least four floats, and -Dvisualizer.simd=false is not set.
+ * Before they are selected they are run once against the scalar versions on random
+ * input: every kernel but sum must match bit for bit and sum to within rounding, or the
+ * scalar versions are used after all. The choice is made once, when this class loads.
+ */
+public class Kernels {
+    private static final boolean VECTOR = selectVector();
+
+    private Kernels() {}
+
+    /**
+     * @return true if the SIMD kernels are in use
+     */
+    public static boolean isVectorized() {
+        return VECTOR;
+    }
+
+    /**
+     * Writes a[aOffset + i] * b[i] into out[i] for i in 0..length-1.
+     */
+    public static void multiply(float[] a, int aOffset, float[] b, float[] out, int length) {
+        if (VECTOR) {
+            VectorKernels.multiply(a, aOffset, b, out, length);
+        } else {
+            ScalarKernels.multiply(a, aOffset, b, out, length);
+        }
+    }
+
+    /**
+     * Writes the magnitude of the complex value (re[i], im[i]) into out[i] for i in
+     * 0..length-1.
+     */
+    public static void magnitudes(float[] re, float[] im, float[] out, int length) {
+        if (VECTOR) {
+            VectorKernels.magnitudes(re, im, out, length);
+        } else {
+            ScalarKernels.magnitudes(re, im, out, length);
+        }
+    }
+
+    /**
+     * @return the sum of values[from..to-1]
+     */
+    public static float sum(float[] values, int from, int to) {
+        return VECTOR ? VectorKernels.sum(values, from, to) : ScalarKernels.sum(values, from, to);
+    }
+
+    /**
+     * Converts frames of 16-bit signed PCM with one or two channels into normalized mono
+     * samples, averaging the channels of each frame.
+     */
+    public static void pcm16ToMono(byte[] data, int frames, int channels, boolean bigEndian, float[] out) {
+        if (VECTOR) {
+            VectorKernels.pcm16ToMono(data, 0, frames, channels, bigEndian, out);
+        } else {
+            ScalarKernels.pcm16ToMono(data, 0, frames, channels, bigEndian, out);
+        }
+    }
+
+    private static boolean selectVector() {
+        if ("false".equals(System.getProperty("visualizer.simd"))) return false;
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return false;
+        try {
+            return VectorKernels.lanes() >= 4 && vectorMatchesScalar();
+        } catch (LinkageError | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static boolean vectorMatchesScalar() {
+        Random random = new Random(1);
+        // odd lengths so the scalar tails are covered too
+        int length = 1027;
+        float[] a = new float[length];
+        float[] b = new float[length];
+        for (int i = 0; i < length; i++) {
+            a[i] = (float) random.nextGaussian() * 1000f;
+            b[i] = (float) random.nextGaussian();
+        }
+        float[] expected = new float[length];
+        float[] actual = new float[length];
+
+        ScalarKernels.multiply(a, 3, b, expected, length - 3);
+        VectorKernels.multiply(a, 3, b, actual, length - 3);
+        if (!Arrays.equals(expected, actual)) return false;
+
+        ScalarKernels.magnitudes(a, b, expected, length);
+        VectorKernels.magnitudes(a, b, actual, length);
+        if (!Arrays.equals(expected, actual)) return false;
+
+        for (int to = 5; to <= length; to += 97) {
+            float scalar = ScalarKernels.sum(a, 5, to);
+            float vector = VectorKernels.sum(a, 5, to);
+            float magnitude = 0f;
+            for (int j = 5; j < to; j++) {
+                magnitude += Math.abs(a[j]);
+            }
+            // any order of the additions stays within a few ulps of the sum of magnitudes
+            if (Math.abs(scalar - vector) > 1e-5f * magnitude) return false;
+        }
+
+        byte[] pcm = new byte[4 * length];
+        random.nextBytes(pcm);
+        for (int channels = 1; channels <= 2; channels++) {
+            for (int big = 0; big < 2; big++) {
+                ScalarKernels.pcm16ToMono(pcm, 0, length, channels, big == 1, expected);
+                VectorKernels.pcm16ToMono(pcm, 0, length, channels, big == 1, actual);
+                if (!Arrays.equals(expected, actual)) return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,387 @@
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * LatencyHarness measures the whole live pipeline end to end, from a sample becoming
+ * audible to the frame that shows it, on a machine with neither a display nor a sound
+ * card.
+ *
+ * It writes synthetic WAV files of clicks, tone bursts and a sweep, and plays them with
+ * a real AudioPlayer, AnalysisBus and VisualizerPanel; only the sound card is replaced,
+ * by a SimulatedSink. A PaintObserver looks at every frame the panel draws offscreen and
+ * notes when the bars jump. Each jump is matched to the click or burst the sink played
+ * just before it, which gives the latency from the sample being audible to it being
+ * drawn, and from the sample being written to the sink to it being drawn. Per signal it
+ * prints those latencies' percentiles, the clicks that were missed, underruns, skipped
+ * analysis frames, and the analysis, paint and audio rates actually sustained.
+ *
+ *     java -Djava.awt.headless=true LatencyHarness [seconds-per-signal] [busy-threads] [speed] [max-misses]
+ *
+ * busy-threads spin alongside to load the machine, and speed runs the sink's clock
+ * faster than real time. It exits with status 1 if any signal had more than max-misses
+ * missed and spurious detections together, 0 by default, or none detected at all. Above
+ * about 1.5x a click can fall between two analysis frames and be missed, so fast runs
+ * need a larger allowance.
+ */
+public class LatencyHarness {
+    private static final float SAMPLE_RATE = 44100;
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+    // when the first event sounds, how far apart events are, and the silence after the last
+    private static final int LEAD_IN_MILLIS = 1000;
+    private static final int EVENT_INTERVAL_MILLIS = 500;
+    private static final int TAIL_MILLIS = 1000;
+    // a jump of the tallest bar past RISE is a detection; it counts again once back below FALL
+    private static final float RISE = 0.25f;
+    private static final float FALL = 0.1f;
+    // a detection later than this after the last event played is not caused by it
+    private static final long MAX_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private static final ObjectName COUNTERS = objectName("music-visualizer:type=PlaybackMetrics");
+    private static final ObjectName FRAME_INTERVAL = objectName("music-visualizer:type=Latency,name=frameInterval");
+
+    private final AudioPlayer player;
+    private final VisualizerPanel panel;
+    private final AtomicReference<SimulatedSink> sink = new AtomicReference<>();
+    private final double speed;
+    private final int maxMisses;
+
+    public LatencyHarness(double speed, int maxMisses) throws ClassNotFoundException {
+        this.speed = speed;
+        this.maxMisses = maxMisses;
+        // registers the MBeans run reads
+        Class.forName("PlaybackMetrics");
+        this.player = new AudioPlayer((format, bufferBytes) -> {
+            SimulatedSink opened = new SimulatedSink(format, bufferBytes, speed);
+            sink.set(opened);
+            return opened;
+        });
+        this.panel = new VisualizerPanel(new AnalysisBus(player));
+        // the panel keeps 10 pixels below the bars
+        panel.setSize(WIDTH, HEIGHT + 10);
+    }
+
+    /**
+     * Signal is one synthetic test track and the frames at which its events start.
+     */
+    private enum Signal {
+        CLICKS, BURSTS, SWEEP;
+
+        String label() {
+            return name().toLowerCase();
+        }
+
+        /**
+         * @return the event start frames; none for the sweep, which just keeps every bar moving
+         */
+        long[] events(int seconds) {
+            if (this == SWEEP) return new long[0];
+            int count = Math.max(1, (seconds * 1000 - LEAD_IN_MILLIS - TAIL_MILLIS) / EVENT_INTERVAL_MILLIS + 1);
+            long[] events = new long[count];
+            for (int i = 0; i < count; i++) {
+                events[i] = frameAt(LEAD_IN_MILLIS + i * EVENT_INTERVAL_MILLIS);
+            }
+            return events;
+        }
+
+        float[] samples(int seconds, long[] events) {
+            int frames = (int) frameAt(Math.max(seconds * 1000, LEAD_IN_MILLIS + TAIL_MILLIS));
+            float[] samples = new float[frames];
+            if (this == SWEEP) {
+                // logarithmic, 20 Hz to 20 kHz over the whole track
+                double duration = frames / SAMPLE_RATE;
+                double k = Math.log(1000);
+                for (int i = 0; i < frames; i++) {
+                    double t = i / SAMPLE_RATE;
+                    double phase = 2 * Math.PI * 20 * duration / k * (Math.exp(k * t / duration) - 1);
+                    samples[i] = (float) (0.5 * Math.sin(phase));
+                }
+                return samples;
+            }
+            for (long event : events) {
+                if (this == CLICKS) {
+                    // a millisecond-long pulse: short enough to be a click, long enough that
+                    // it cannot hide at the edge of an analysis window
+                    int length = (int) frameAt(1);
+                    Arrays.fill(samples, (int) event, (int) event + length, 0.9f);
+                } else {
+                    // 50 ms of 1 kHz with 3 ms fades so the edges do not click
+                    int length = (int) frameAt(50);
+                    int fade = (int) frameAt(3);
+                    for (int i = 0; i < length; i++) {
+                        float gain = Math.min(1f, Math.min(i, length - 1 - i) / (float) fade);
+                        samples[(int) event + i] = (float) (0.5 * gain * Math.sin(2 * Math.PI * 1000 * i / SAMPLE_RATE));
+                    }
+                }
+            }
+            return samples;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int busyThreads = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        double speed = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+        int maxMisses = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+        Path dir = Files.createTempDirectory("latency-harness");
+        // keep the harness's spectrogram and waveform caches out of the user's cache
+        if (System.getProperty("visualizer.cacheDir") == null) {
+            System.setProperty("visualizer.cacheDir", dir.resolve("cache").toString());
+        }
+        for (int i = 0; i < busyThreads; i++) {
+            Thread busy = new Thread(LatencyHarness::spin, "busy-" + i);
+            busy.setDaemon(true);
+            busy.start();
+        }
+
+        System.out.printf("%d s per signal, %d busy threads, %.1fx speed, %s output, %d misses allowed%n",
+            seconds, busyThreads, speed, OutputProfile.configured().getLabel().toLowerCase(), maxMisses);
+        LatencyHarness harness = new LatencyHarness(speed, maxMisses);
+        boolean passed = true;
+        try {
+            for (Signal signal : Signal.values()) {
+                passed &= harness.run(signal, seconds, dir);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static volatile double spun;
+
+    private static void spin() {
+        double x = 0;
+        while (true) {
+            x += Math.sin(x);
+            spun = x;
+        }
+    }
+
+    /**
+     * Plays signal through the pipeline and prints what was measured.
+     *
+     * @return false if the signal's events were missed or imagined more than maxMisses
+     *         times, or none of them were detected
+     */
+    private boolean run(Signal signal, int seconds, Path dir) throws Exception {
+        long[] events = signal.events(seconds);
+        Path file = dir.resolve(signal.label() + ".wav");
+        writeWav(file, signal.samples(seconds, events));
+
+        PlaybackMetricsMXBean counters = JMX.newMXBeanProxy(server(), COUNTERS, PlaybackMetricsMXBean.class);
+        LatencyHistogramMXBean frameInterval = JMX.newMXBeanProxy(server(), FRAME_INTERVAL, LatencyHistogramMXBean.class);
+        long underruns = counters.getUnderruns();
+        long skipped = counters.getSkippedFrames();
+        long analyzed = frameInterval.getCount();
+
+        Detector detector = new Detector(events);
+        panel.setPaintObserver(detector);
+        CountDownLatch stopped = new CountDownLatch(1);
+        PlaybackListener listener = state -> {
+            if (state == PlaybackState.STOPPED) stopped.countDown();
+        };
+        player.addListener(listener);
+        long start = System.nanoTime();
+        try {
+            player.play(file.toString(), signal.label(), message -> System.err.println(signal.label() + ": " + message));
+            long timeout = (long) (seconds / speed) + 30;
+            if (!stopped.await(timeout, TimeUnit.SECONDS)) {
+                player.stop();
+                throw new IllegalStateException(signal.label() + " did not finish within " + timeout + " s");
+            }
+        } finally {
+            player.removeListener(listener);
+            panel.setPaintObserver(null);
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        SimulatedSink played = sink.get();
+        double audioSeconds = played == null ? 0 : played.getLongFramePosition() / SAMPLE_RATE;
+
+        Detector.Result result = detector.result(played);
+        System.out.printf("%-7s analysis %.1f fps, %d skipped; paint %.1f fps; %d underruns; audio %.2fx real time%n",
+            signal.label(), (frameInterval.getCount() - analyzed) / elapsed, counters.getSkippedFrames() - skipped,
+            result.paints / elapsed, counters.getUnderruns() - underruns, audioSeconds / elapsed);
+        if (events.length == 0) return true;
+
+        System.out.printf("        %d events, %d detected, %d missed, %d spurious%n",
+            events.length, result.audible.length, result.missed, result.spurious);
+        System.out.println("        audible to paint " + percentiles(result.audible));
+        System.out.println("        written to paint " + percentiles(result.written));
+        boolean passed = result.audible.length > 0 && result.missed + result.spurious <= maxMisses;
+        if (!passed) System.out.println("        FAILED: more than " + maxMisses + " missed or spurious");
+        return passed;
+    }
+
+    /**
+     * Detector finds the frames in which the bars jump and times them against the events.
+     * Runs on the event dispatch thread.
+     */
+    private final class Detector implements VisualizerPanel.PaintObserver {
+        private final long[] events;
+        private final long[] audible;
+        private final long[] written;
+        private int detected;
+        // events before next are matched or missed
+        private int next;
+        private int missed;
+        private int spurious;
+        private int paints;
+        private boolean armed = true;
+
+        Detector(long[] events) {
+            this.events = events;
+            this.audible = new long[events.length];
+            this.written = new long[events.length];
+        }
+
+        @Override
+        public void painted(BufferedImage image, BandSnapshot snapshot) {
+            long now = System.nanoTime();
+            paints++;
+            if (events.length == 0) return;
+
+            float level = tallestBar(image);
+            if (armed && level >= RISE) {
+                armed = false;
+                match(now);
+            } else if (!armed && level < FALL) {
+                armed = true;
+            }
+        }
+
+        /**
+         * Attributes a detection at now to the latest event audible by then.
+         */
+        private void match(long now) {
+            SimulatedSink current = sink.get();
+            int last = -1;
+            long playedAt = -1;
+            for (int i = next; i < events.length && current != null; i++) {
+                long at = current.nanoTimeOf(events[i]);
+                if (at < 0 || at > now) break;
+                last = i;
+                playedAt = at;
+            }
+            if (last < 0 || now - playedAt > MAX_LATENCY_NANOS) {
+                spurious++;
+                return;
+            }
+            missed += last - next;
+            next = last + 1;
+            audible[detected] = now - playedAt;
+            written[detected] = now - current.writtenAt(events[last]);
+            detected++;
+        }
+
+        /**
+         * @return the height of the tallest bar in image, 0 to 1
+         */
+        private float tallestBar(BufferedImage image) {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int barWidth = width / AnalysisBus.BANDS;
+            int background = image.getRGB(width - 1, 0);
+            int tallest = 0;
+            for (int i = 0; i < AnalysisBus.BANDS; i++) {
+                int x = i * barWidth + Math.max(0, barWidth - 2) / 2;
+                for (int y = 0; y < height - tallest; y++) {
+                    if (image.getRGB(x, y) != background) {
+                        tallest = height - y;
+                        break;
+                    }
+                }
+            }
+            return tallest / (float) height;
+        }
+
+        Result result(SimulatedSink played) {
+            // events played that no detection was attributed to
+            int unmatched = 0;
+            for (int i = next; i < events.length && played != null; i++) {
+                if (played.nanoTimeOf(events[i]) >= 0 && events[i] < played.getLongFramePosition()) unmatched++;
+            }
+            return new Result(Arrays.copyOf(audible, detected), Arrays.copyOf(written, detected),
+                missed + unmatched, spurious, paints);
+        }
+
+        final class Result {
+            final long[] audible;
+            final long[] written;
+            final int missed;
+            final int spurious;
+            final int paints;
+
+            Result(long[] audible, long[] written, int missed, int spurious, int paints) {
+                this.audible = audible;
+                this.written = written;
+                this.missed = missed;
+                this.spurious = spurious;
+                this.paints = paints;
+            }
+        }
+    }
+
+    private static String percentiles(long[] nanos) {
+        if (nanos.length == 0) return "n/a";
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return String.format("p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+            percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99), sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static long frameAt(int millis) {
+        return (long) SAMPLE_RATE * millis / 1000;
+    }
+
+    private static void writeWav(Path file, float[] samples) throws IOException {
+        ByteBuffer pcm = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (float sample : samples) {
+            pcm.putShort((short) Math.round(sample * Short.MAX_VALUE));
+        }
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        try (AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(pcm.array()), format, samples.length)) {
+            AudioSystem.write(stream, AudioFileFormat.Type.WAVE, file.toFile());
+        }
+    }
+
+    private static MBeanServer server() {
+        return ManagementFactory.getPlatformMBeanServer();
+    }
+
+    private static ObjectName objectName(String name) {
+        try {
+            return new ObjectName(name);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(name, e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts durations in nanoseconds into log-scaled buckets, four per
+ * power of two, so any percentile is known to within about 12%.
+ *
+ * Recording is a few atomic adds on preallocated counters: it never allocates or locks,
+ * so it is safe to call from the output and render threads on every chunk or frame.
+ * Reads see a consistent-enough view for monitoring, not an atomic snapshot.
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+    private static final int SUB_BUCKETS = 4;
+    // 2^42 ns is over an hour
+    private static final int BUCKETS = 42 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long previous;
+        while (nanos > (previous = max.get()) && !max.compareAndSet(previous, nanos)) {
+            // another thread raised max first; retry against its value
+        }
+    }
+
+    private static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, exponent * SUB_BUCKETS + sub);
+    }
+
+    /**
+     * @return the middle of the range bucket i covers, in nanoseconds
+     */
+    private static double midpointOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        double width = Math.pow(2, exponent - 2);
+        return (SUB_BUCKETS + sub + 0.5) * width;
+    }
+
+    /**
+     * @return the duration in nanoseconds below which the given fraction of records fall
+     */
+    public double percentile(double fraction) {
+        long total = count.get();
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) return Math.min(midpointOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        long total = count.get();
+        return total == 0 ? 0 : sum.get() / (double) total / 1000;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return percentile(0.5) / 1000;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return percentile(0.99) / 1000;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return percentile(0.999) / 1000;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return max.get() / 1000.0;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
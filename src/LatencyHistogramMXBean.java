@@ -0,0 +1,18 @@
+/**
+ * Management interface of a LatencyHistogram. Times are in microseconds.
+ */
+public interface LatencyHistogramMXBean {
+    long getCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+    void reset();
+}
@@ -0,0 +1,221 @@
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * LibraryIndex lists the MP3 and WAV files under a directory together with their
+ * TrackInfo, read from the file headers without decoding anything.
+ *
+ * The results are kept in an index file in the SidecarCache directory, one per library
+ * root. A scan walks the tree, keeps every entry whose file still has the same size and
+ * modification time, and probes only new or changed files, on a bounded pool of I/O
+ * workers. Rescanning an unchanged library therefore costs one directory walk and one
+ * sequential read of the index. Files whose headers cannot be read are remembered as
+ * such, so they are not probed again until they change either.
+ *
+ *     java LibraryIndex <directory>
+ */
+public class LibraryIndex {
+    // header reads mostly wait on the disk, so more workers than cores pay off
+    public static final int DEFAULT_WORKERS = Math.min(16, 4 * Runtime.getRuntime().availableProcessors());
+    private static final int MAGIC = 0x4c494258; // "LIBX"
+    // 2: MP3 lengths from a Xing frame count without a table of contents
+    private static final int VERSION = 2;
+
+    private final Path root;
+    private final int workers;
+
+    public LibraryIndex(Path root, int workers) {
+        this.root = root.toAbsolutePath().normalize();
+        this.workers = workers;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java LibraryIndex <directory>");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        List<TrackInfo> tracks = new LibraryIndex(Path.of(args[0]), DEFAULT_WORKERS).scan();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long millis = 0;
+        for (TrackInfo track : tracks) {
+            millis += track.getDurationMillis();
+        }
+        System.out.printf("%d tracks, %.1f h of audio, indexed in %.2f s%n", tracks.size(), millis / 3.6e6, seconds);
+    }
+
+    /**
+     * Walks the library, probes new and changed files and saves the index.
+     *
+     * @return the readable tracks, sorted by path
+     */
+    public List<TrackInfo> scan() throws IOException {
+        Path indexFile = SidecarCache.entry(root, "library");
+        Map<String, TrackInfo> known = load(indexFile);
+        List<TrackInfo> files = walk();
+
+        List<TrackInfo> entries = new ArrayList<>(files.size());
+        List<Future<TrackInfo>> probes = new ArrayList<>();
+        ExecutorService pool = null;
+        try {
+            for (TrackInfo file : files) {
+                TrackInfo entry = known.get(file.getPath().toString());
+                if (entry != null && entry.getSize() == file.getSize() && entry.getModified() == file.getModified()) {
+                    entries.add(entry.at(file.getPath()));
+                    continue;
+                }
+                if (pool == null) pool = Executors.newFixedThreadPool(workers, r -> {
+                    Thread thread = new Thread(r, "library-probe");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                probes.add(pool.submit(() -> probe(file.getPath(), file.getSize(), file.getModified())));
+            }
+            for (Future<TrackInfo> probe : probes) {
+                entries.add(probe.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing " + root, e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            if (pool != null) pool.shutdownNow();
+        }
+
+        entries.sort(Comparator.comparing(TrackInfo::getPath));
+        if (!probes.isEmpty() || known.size() != entries.size()) save(indexFile, entries);
+
+        List<TrackInfo> tracks = new ArrayList<>(entries.size());
+        for (TrackInfo entry : entries) {
+            if (entry.isReadable()) tracks.add(entry);
+        }
+        return tracks;
+    }
+
+    /**
+     * @return the path, size and modification time of every audio file under root
+     */
+    private List<TrackInfo> walk() throws IOException {
+        List<TrackInfo> files = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                String name = file.getFileName().toString();
+                // the same extensions PcmSource.open accepts
+                if (attributes.isRegularFile() && (name.endsWith(".mp3") || name.endsWith(".wav"))) {
+                    files.add(TrackInfo.unreadable(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // unreadable directories are skipped, not fatal
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private static TrackInfo probe(Path file, long size, long modified) {
+        try {
+            if (file.getFileName().toString().endsWith(".mp3")) return Mp3FrameIndex.probe(file, size, modified);
+
+            TrackInfo info = WavReader.probe(file, size, modified);
+            if (info != null) return info;
+            // other WAV encodings; this too only reads the header
+            AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file.toFile());
+            AudioFormat format = fileFormat.getFormat();
+            int bitrate = format.getFrameSize() > 0 ? (int) (format.getFrameRate() * format.getFrameSize() * 8 / 1000) : 0;
+            return new TrackInfo(file, size, modified, Math.max(0, fileFormat.getFrameLength()),
+                (int) format.getSampleRate(), format.getChannels(), bitrate);
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            return TrackInfo.unreadable(file, size, modified);
+        }
+    }
+
+    /**
+     * @return the entries of the index file by absolute path, or none if it is missing,
+     *         damaged or for another root. The entries have no path of their own yet;
+     *         parsing tens of thousands of paths is most of the cost of a load, and the
+     *         walk has already parsed them.
+     */
+    private Map<String, TrackInfo> load(Path indexFile) {
+        Map<String, TrackInfo> known = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(root.toString())) return known;
+            int count = in.readInt();
+            String prefix = root.toString() + root.getFileSystem().getSeparator();
+            for (int i = 0; i < count; i++) {
+                String path = prefix + in.readUTF();
+                TrackInfo entry = new TrackInfo(null, in.readLong(), in.readLong(), in.readLong(),
+                    in.readInt(), in.readInt(), in.readInt());
+                known.put(path, entry);
+            }
+        } catch (NoSuchFileException e) {
+            // first scan of this root
+        } catch (IOException e) {
+            // a damaged index only costs a full probe
+            known.clear();
+        }
+        return known;
+    }
+
+    /**
+     * Writes the index to a temporary file and moves it into place, so a crash or a
+     * concurrent scan never leaves a half-written index behind.
+     */
+    private void save(Path indexFile, List<TrackInfo> entries) {
+        try {
+            Files.createDirectories(indexFile.getParent());
+            Path temp = Files.createTempFile(indexFile.getParent(), "library", ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeUTF(root.toString());
+                    out.writeInt(entries.size());
+                    for (TrackInfo entry : entries) {
+                        out.writeUTF(root.relativize(entry.getPath()).toString());
+                        out.writeLong(entry.getSize());
+                        out.writeLong(entry.getModified());
+                        out.writeLong(entry.getFrameLength());
+                        out.writeInt(entry.getSampleRate());
+                        out.writeInt(entry.getChannels());
+                        out.writeInt(entry.getBitrate());
+                    }
+                }
+                Files.move(temp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException ignored) {
+            // an unwritable cache only costs a full probe next time
+        }
+    }
+}
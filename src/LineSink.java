@@ -0,0 +1,75 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * LineSink is an AudioSink on a javax.sound.sampled SourceDataLine of the default mixer,
+ * the sound card AudioPlayer plays to unless it is given another AudioSink.Factory.
+ */
+public class LineSink implements AudioSink {
+    private final SourceDataLine line;
+
+    private LineSink(SourceDataLine line) {
+        this.line = line;
+    }
+
+    /**
+     * Opens a line for format. The mixer may pick a buffer size other than bufferBytes.
+     */
+    public static LineSink open(AudioFormat format, int bufferBytes) throws LineUnavailableException {
+        SourceDataLine line = AudioSystem.getSourceDataLine(format);
+        line.open(format, bufferBytes);
+        return new LineSink(line);
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return line.getFormat();
+    }
+
+    @Override
+    public int getBufferSize() {
+        return line.getBufferSize();
+    }
+
+    @Override
+    public int available() {
+        return line.available();
+    }
+
+    @Override
+    public long getLongFramePosition() {
+        return line.getLongFramePosition();
+    }
+
+    @Override
+    public void start() {
+        line.start();
+    }
+
+    @Override
+    public void stop() {
+        line.stop();
+    }
+
+    @Override
+    public void flush() {
+        line.flush();
+    }
+
+    @Override
+    public void drain() {
+        line.drain();
+    }
+
+    @Override
+    public void close() {
+        line.close();
+    }
+
+    @Override
+    public int write(byte[] buffer, int offset, int length) {
+        return line.write(buffer, offset, length);
+    }
+}
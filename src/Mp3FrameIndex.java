@@ -0,0 +1,440 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Mp3FrameIndex maps MP3 frame numbers to byte offsets so playback can start and seek
+ * without decoding or skipping frames from the beginning of the file.
+ *
+ * The index is built by visiting every frame header with a header-only scan, which gives
+ * an exact offset for every frame, and is stored in a sidecar cache entry keyed by path,
+ * size and mtime, so the next open is a single small read. A Xing/Info or VBRI header in
+ * the first frame gives the frame count at once, so fromHeader can tell the duration
+ * while the scan is still running; its table of contents is not used, because its
+ * offsets are quantized and interpolated and would land seeks mid-frame.
+ */
+public class Mp3FrameIndex {
+    private static final int MAGIC = 0x4d503358; // "MP3X"
+    private static final int VERSION = 2;
+    // enough for the first frames and their Xing/VBRI header
+    private static final int PROBE_WINDOW = 8 * 1024;
+
+    private static final int[][] BITRATES = {
+        // MPEG1 layer I, II, III
+        {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+        {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+        {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+        // MPEG2/2.5 layer I, II & III
+        {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+        {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+    };
+    private static final int[][] SAMPLE_RATES = {
+        {11025, 12000, 8000},  // MPEG2.5
+        {0, 0, 0},             // reserved
+        {22050, 24000, 16000}, // MPEG2
+        {44100, 48000, 32000}, // MPEG1
+    };
+
+    private final int frameCount;
+    private final int samplesPerFrame;
+    private final int sampleRate;
+    private final int channels;
+    private final long audioBytes;
+
+    // the offset of every frame, or null if the index only came from the header
+    private final long[] offsets;
+
+    private Mp3FrameIndex(int frameCount, int samplesPerFrame, int sampleRate, int channels,
+                          long audioBytes, long[] offsets) {
+        this.frameCount = frameCount;
+        this.samplesPerFrame = samplesPerFrame;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.audioBytes = audioBytes;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Loads the index for file from the sidecar cache, building and caching it if needed.
+     */
+    public static Mp3FrameIndex load(Path file) throws IOException {
+        Path cached = SidecarCache.entry(file, "mp3idx");
+        if (Files.exists(cached)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cached)))) {
+                if (SidecarCache.readHeader(in, file, MAGIC, VERSION)) return read(in);
+            } catch (IOException ignored) {
+                // fall through and rebuild a damaged entry
+            }
+        }
+
+        Mp3FrameIndex index = build(file);
+        try {
+            // written aside and moved into place, so a concurrent load never reads half an entry
+            Files.createDirectories(cached.getParent());
+            Path partial = Files.createTempFile(cached.getParent(), cached.getFileName().toString(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)))) {
+                    SidecarCache.writeHeader(out, file, MAGIC, VERSION);
+                    index.write(out);
+                }
+                Files.move(partial, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(partial);
+            }
+        } catch (IOException ignored) {
+            // an unwritable cache only costs a rescan next time
+        }
+        return index;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getSamplesPerFrame() {
+        return samplesPerFrame;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public long getTotalSamples() {
+        return (long) frameCount * samplesPerFrame;
+    }
+
+    /**
+     * @return the average bitrate in kbit/s
+     */
+    public int getBitrate() {
+        long micros = getTotalSamples() * 1_000_000L / Math.max(1, sampleRate);
+        return micros > 0 ? (int) (audioBytes * 8_000L / micros) : 0;
+    }
+
+    /**
+     * @return true if the index has the offset of every frame, false if it only came from
+     *         the header and knows nothing but the length
+     */
+    public boolean isExact() {
+        return offsets != null;
+    }
+
+    /**
+     * Returns the byte offset of the header of the given frame. Only an exact index has one.
+     */
+    public long byteOffsetOf(int frame) {
+        if (offsets == null) throw new IllegalStateException("A header-only index has no frame offsets");
+        return offsets[Math.max(0, Math.min(frame, frameCount - 1))];
+    }
+
+    /**
+     * Reads the length of file from its Xing/Info or VBRI header, without scanning it.
+     *
+     * @return an index that is not exact, or null if the file has no such header
+     */
+    public static Mp3FrameIndex fromHeader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            HeaderReader reader = new HeaderReader(channel, ByteBuffer.allocate(PROBE_WINDOW));
+            long fileSize = channel.size();
+
+            long first = sync(reader, skipId3v2(reader), fileSize);
+            if (first < 0) return null;
+            int header = reader.intAt(first);
+            int version = (header >>> 19) & 3;
+            int layer = 4 - ((header >>> 17) & 3);
+            int sampleRate = SAMPLE_RATES[version][(header >>> 10) & 3];
+            int channels = ((header >>> 6) & 3) == 3 ? 1 : 2;
+            return readLengthHeader(reader, first, header, fileSize, samplesPerFrame(version, layer), sampleRate, channels);
+        }
+    }
+
+    /**
+     * Reads length, format and bitrate from the start of the file only. The length comes
+     * from the frame count of the Xing/Info or VBRI header when there is one, whether or
+     * not it has a table of contents, and is otherwise estimated from the first frame's
+     * bitrate, which is exact for constant bitrate files.
+     */
+    static TrackInfo probe(Path file, long size, long modified) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            HeaderReader reader = new HeaderReader(channel, ByteBuffer.allocate(PROBE_WINDOW));
+            long fileSize = channel.size();
+
+            long first = skipId3v2(reader);
+            first = sync(reader, first, fileSize);
+            if (first < 0) throw new IOException("No MPEG audio frames found");
+
+            int header = reader.intAt(first);
+            int version = (header >>> 19) & 3;
+            int layer = 4 - ((header >>> 17) & 3);
+            int sampleRate = SAMPLE_RATES[version][(header >>> 10) & 3];
+            int channels = ((header >>> 6) & 3) == 3 ? 1 : 2;
+            int samplesPerFrame = samplesPerFrame(version, layer);
+
+            Mp3FrameIndex lengthHeader = readLengthHeader(reader, first, header, fileSize, samplesPerFrame, sampleRate, channels);
+            if (lengthHeader != null) {
+                return new TrackInfo(file, size, modified, lengthHeader.getTotalSamples(), sampleRate, channels, lengthHeader.getBitrate());
+            }
+
+            long audioBytes = fileSize - first;
+            // an ID3v1 tag is the last 128 bytes, starting with "TAG"
+            if (audioBytes > 128 && (reader.intAt(fileSize - 128) >>> 8) == 0x544147) audioBytes -= 128;
+            int bitrate = bitrate(header);
+            long frameLength = audioBytes * 8 * sampleRate / (bitrate * 1000L);
+            return new TrackInfo(file, size, modified, frameLength, sampleRate, channels, bitrate);
+        }
+    }
+
+    static Mp3FrameIndex build(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            HeaderReader reader = new HeaderReader(channel, ByteBuffer.allocateDirect(64 * 1024));
+            long fileSize = channel.size();
+
+            long first = skipId3v2(reader);
+            first = sync(reader, first, fileSize);
+            if (first < 0) throw new IOException("No MPEG audio frames found");
+
+            int header = reader.intAt(first);
+            int version = (header >>> 19) & 3;
+            int layer = 4 - ((header >>> 17) & 3);
+            int sampleRate = SAMPLE_RATES[version][(header >>> 10) & 3];
+            int channels = ((header >>> 6) & 3) == 3 ? 1 : 2;
+            int samplesPerFrame = samplesPerFrame(version, layer);
+            return scan(reader, first, header, fileSize, samplesPerFrame, sampleRate, channels);
+        }
+    }
+
+    /**
+     * Visits every frame header, jumping by frame length, and records each offset.
+     */
+    private static Mp3FrameIndex scan(HeaderReader reader, long first, int firstHeader, long fileSize,
+                                      int samplesPerFrame, int sampleRate, int channels) throws IOException {
+        long[] offsets = new long[4096];
+        int count = 0;
+        long pos = first;
+        long end = first;
+
+        while (pos + 4 <= fileSize) {
+            int header = reader.intAt(pos);
+            int length = sameStream(header, firstHeader) ? frameLength(header) : -1;
+            if (length <= 0) {
+                // lost sync: damaged data or trailing tags, look for the next frame
+                long next = sync(reader, pos + 1, fileSize);
+                if (next < 0 || !sameStream(reader.intAt(next), firstHeader)) break;
+                pos = next;
+                continue;
+            }
+            if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+            offsets[count] = pos;
+            count++;
+            pos += length;
+            end = Math.min(pos, fileSize);
+        }
+
+        if (count == 0) throw new IOException("No MPEG audio frames found");
+        return new Mp3FrameIndex(count, samplesPerFrame, sampleRate, channels, end - first, Arrays.copyOf(offsets, count));
+    }
+
+    /**
+     * Builds a header-only index from a Xing/Info or VBRI header in the first frame, if any.
+     * The header frame itself decodes to a frame of silence, so it is counted like the
+     * scan counts it.
+     */
+    private static Mp3FrameIndex readLengthHeader(HeaderReader reader, long first, int header, long fileSize,
+                                                  int samplesPerFrame, int sampleRate, int channels) throws IOException {
+        int version = (header >>> 19) & 3;
+        boolean mono = ((header >>> 6) & 3) == 3;
+        int sideInfo = version == 3 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+        long audioStart = first + frameLength(header);
+
+        long xing = first + 4 + sideInfo;
+        int tag = reader.intAt(xing);
+        if (tag == 0x58696e67 || tag == 0x496e666f) { // "Xing" / "Info"
+            int flags = reader.intAt(xing + 4);
+            long pos = xing + 8;
+            int frames = -1;
+            long bytes = fileSize - first;
+            if ((flags & 1) != 0) { frames = reader.intAt(pos); pos += 4; }
+            if ((flags & 2) != 0) bytes = reader.intAt(pos) & 0xffffffffL;
+            // the frame count is enough; the table of contents is not needed
+            if (frames <= 0) return null;
+
+            long end = Math.min(fileSize, first + bytes);
+            return new Mp3FrameIndex(frames + 1, samplesPerFrame, sampleRate, channels, end - audioStart, null);
+        }
+
+        long vbri = first + 4 + 32;
+        if (reader.intAt(vbri) == 0x56425249) { // "VBRI"
+            long bytes = reader.intAt(vbri + 10) & 0xffffffffL;
+            int frames = reader.intAt(vbri + 14);
+            if (frames <= 0) return null;
+
+            long end = Math.min(fileSize, first + bytes);
+            return new Mp3FrameIndex(frames + 1, samplesPerFrame, sampleRate, channels, end - audioStart, null);
+        }
+        return null;
+    }
+
+    private static long skipId3v2(HeaderReader reader) throws IOException {
+        long pos = 0;
+        // "ID3" followed by a synchsafe size; tags may be stacked
+        while ((reader.intAt(pos) >>> 8) == 0x494433) {
+            int flags = reader.byteAt(pos + 5);
+            int size = (reader.byteAt(pos + 6) << 21) | (reader.byteAt(pos + 7) << 14)
+                     | (reader.byteAt(pos + 8) << 7) | reader.byteAt(pos + 9);
+            pos += 10 + size + ((flags & 0x10) != 0 ? 10 : 0);
+        }
+        return pos;
+    }
+
+    /**
+     * @return the offset of the first position at or after pos holding a valid frame header
+     *         that is followed by another one, or -1
+     */
+    private static long sync(HeaderReader reader, long pos, long fileSize) throws IOException {
+        for (; pos + 4 <= fileSize; pos++) {
+            int header = reader.intAt(pos);
+            int length = frameLength(header);
+            if (length <= 0) continue;
+            long next = pos + length;
+            if (next + 4 > fileSize || sameStream(reader.intAt(next), header)) return pos;
+        }
+        return -1;
+    }
+
+    private static boolean sameStream(int header, int reference) {
+        // sync word, version, layer and sample rate must not change mid-stream
+        return (header & 0xfffe0c00) == (reference & 0xfffe0c00) && frameLength(header) > 0;
+    }
+
+    /**
+     * @return the length in bytes of the frame with this header, or -1 if it is not valid
+     */
+    static int frameLength(int header) {
+        if ((header & 0xffe00000) != 0xffe00000) return -1;
+        int version = (header >>> 19) & 3;
+        int layerBits = (header >>> 17) & 3;
+        int bitrateIndex = (header >>> 12) & 15;
+        int rateIndex = (header >>> 10) & 3;
+        if (version == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3) return -1;
+
+        int layer = 4 - layerBits;
+        int bitrate = bitrate(header) * 1000;
+        int sampleRate = SAMPLE_RATES[version][rateIndex];
+        int padding = (header >>> 9) & 1;
+
+        if (layer == 1) return (12 * bitrate / sampleRate + padding) * 4;
+        if (layer == 3 && version != 3) return 72 * bitrate / sampleRate + padding;
+        return 144 * bitrate / sampleRate + padding;
+    }
+
+    /**
+     * @return the bitrate in kbit/s of a valid frame header
+     */
+    private static int bitrate(int header) {
+        int version = (header >>> 19) & 3;
+        int layer = 4 - ((header >>> 17) & 3);
+        int table = version == 3 ? layer - 1 : (layer == 1 ? 3 : 4);
+        return BITRATES[table][(header >>> 12) & 15];
+    }
+
+    private static int samplesPerFrame(int version, int layer) {
+        if (layer == 1) return 384;
+        if (layer == 2) return 1152;
+        return version == 3 ? 1152 : 576;
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(frameCount);
+        out.writeInt(samplesPerFrame);
+        out.writeInt(sampleRate);
+        out.writeInt(channels);
+        out.writeLong(audioBytes);
+        // frames are a few hundred bytes apart, so varint deltas take two bytes each
+        out.writeLong(offsets[0]);
+        for (int i = 1; i < frameCount; i++) {
+            long delta = offsets[i] - offsets[i - 1];
+            while (delta >= 0x80) {
+                out.writeByte((int) (delta & 0x7f) | 0x80);
+                delta >>>= 7;
+            }
+            out.writeByte((int) delta);
+        }
+    }
+
+    private static Mp3FrameIndex read(DataInputStream in) throws IOException {
+        int frameCount = in.readInt();
+        int samplesPerFrame = in.readInt();
+        int sampleRate = in.readInt();
+        int channels = in.readInt();
+        long audioBytes = in.readLong();
+        if (frameCount <= 0) throw new IOException("Empty MP3 index");
+        long[] offsets = new long[frameCount];
+        offsets[0] = in.readLong();
+        for (int i = 1; i < frameCount; i++) {
+            long delta = 0;
+            int shift = 0, b;
+            do {
+                b = in.readUnsignedByte();
+                delta |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            offsets[i] = offsets[i - 1] + delta;
+        }
+        return new Mp3FrameIndex(frameCount, samplesPerFrame, sampleRate, channels, audioBytes, offsets);
+    }
+
+    /**
+     * Reads big-endian values at absolute file offsets through a sliding window, so the
+     * scan costs one read call per window rather than one per frame.
+     */
+    private static final class HeaderReader {
+        private final FileChannel channel;
+        private final ByteBuffer window;
+        private long windowStart = -1;
+        private int windowLength = 0;
+
+        HeaderReader(FileChannel channel, ByteBuffer window) {
+            this.channel = channel;
+            this.window = window;
+        }
+
+        int byteAt(long pos) throws IOException {
+            if (pos < windowStart || pos >= windowStart + windowLength) fill(pos);
+            int index = (int) (pos - windowStart);
+            return index < windowLength ? window.get(index) & 0xff : 0;
+        }
+
+        int shortAt(long pos) throws IOException {
+            return (byteAt(pos) << 8) | byteAt(pos + 1);
+        }
+
+        int intAt(long pos) throws IOException {
+            if (pos < windowStart || pos + 4 > windowStart + windowLength) fill(pos);
+            int index = (int) (pos - windowStart);
+            if (index + 4 <= windowLength) return window.getInt(index);
+            return (byteAt(pos) << 24) | (byteAt(pos + 1) << 16) | (byteAt(pos + 2) << 8) | byteAt(pos + 3);
+        }
+
+        private void fill(long pos) throws IOException {
+            window.clear();
+            windowStart = pos;
+            while (window.hasRemaining()) {
+                if (channel.read(window, pos + window.position()) < 0) break;
+            }
+            windowLength = window.position();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.DecoderException;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.SampleBuffer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Mp3Source decodes an MP3 file with JLayer into 16-bit signed little-endian PCM.
+ *
+ * The output format is known from the first frame header, so reading can start at once
+ * while the exact Mp3FrameIndex loads in the background, and a Xing/Info or VBRI header
+ * gives the length in the meantime. A seek repositions the file at the indexed offset of
+ * the frame that holds the target and drops the decoded samples ahead of it. Before the
+ * index is ready, a seek starts from the nearest point whose frame is known for sure,
+ * the current position or the start of the file, and skips whole frames forward by
+ * their headers without decoding them, so the position it reports is always exact.
+ * Either way the last PRIMING_FRAMES frames before the target are decoded and dropped,
+ * which refills the bit reservoir the target frame may draw on.
+ *
+ * An MP3 stream that can only be read once, such as a pipe, has no index: its length is
+ * unknown and it cannot seek.
+ */
+public class Mp3Source implements PcmSource {
+    // header scans are blocking file reads, kept off the common pool
+    private static final ExecutorService indexer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "mp3-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // a Layer III frame's main data can start up to 511 bytes back, in the bit reservoir
+    // of earlier frames; two frames hold that much from 128 kbit/s up
+    private static final int PRIMING_FRAMES = 2;
+
+    private final Path file;
+    private final CompletableFuture<Mp3FrameIndex> index;
+    // the length from the Xing/Info or VBRI header, or null
+    private final Mp3FrameIndex lengthHeader;
+    private final AudioFormat format;
+    private int samplesPerFrame;
+
+    private FileInputStream input;
+    private Bitstream bitstream;
+    private Decoder decoder;
+    private long position;
+
+    // decoded bytes of the current frame not handed out yet
+    private final byte[] pending = new byte[1152 * 2 * 2];
+    private int pendingOffset;
+    private int pendingLength;
+
+    public Mp3Source(Path file) throws IOException {
+        this.file = file;
+        this.index = CompletableFuture.supplyAsync(() -> {
+            try {
+                return Mp3FrameIndex.load(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, indexer);
+        this.lengthHeader = Mp3FrameIndex.fromHeader(file);
+
+        openAt(0);
+        this.format = readFirstFrame();
+    }
+
+    public Mp3Source(InputStream stream) throws IOException {
+        this.file = null;
+        this.index = CompletableFuture.failedFuture(new IOException("A stream has no frame index"));
+        this.lengthHeader = null;
+        bitstream = new Bitstream(stream);
+        decoder = new Decoder();
+        this.format = readFirstFrame();
+    }
+
+    /**
+     * Decodes the first frame, whose header gives the output format.
+     */
+    private AudioFormat readFirstFrame() throws IOException {
+        try {
+            Header header = bitstream.readFrame();
+            if (header == null) {
+                close();
+                throw new IOException("No MPEG audio frames found");
+            }
+            int channels = header.mode() == Header.SINGLE_CHANNEL ? 1 : 2;
+            decode(header);
+            samplesPerFrame = pendingLength / 2 / channels;
+            return new AudioFormat(header.frequency(), 16, channels, true, false);
+        } catch (BitstreamException | DecoderException e) {
+            close();
+            throw new IOException(e);
+        }
+    }
+
+    private void openAt(long offset) throws IOException {
+        if (input != null) input.close();
+        input = new FileInputStream(file.toFile());
+        input.getChannel().position(offset);
+        bitstream = new Bitstream(new BufferedInputStream(input, 64 * 1024));
+        // JLayer's frame decoders stay bound to the first Bitstream they read from
+        decoder = new Decoder();
+        pendingOffset = pendingLength = 0;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        Mp3FrameIndex loaded = loadedIndex();
+        if (loaded != null) return loaded.getTotalSamples();
+        return lengthHeader != null ? lengthHeader.getTotalSamples() : AudioSystem.NOT_SPECIFIED;
+    }
+
+    /**
+     * @return the exact index if it has been built, or null
+     */
+    private Mp3FrameIndex loadedIndex() {
+        return index.isDone() && !index.isCompletedExceptionally() ? index.join() : null;
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return file != null;
+    }
+
+    @Override
+    public void seek(long frame) throws IOException {
+        if (frame == position) return;
+        if (file == null) throw new IOException("Cannot seek in a stream");
+
+        Mp3FrameIndex loaded = loadedIndex();
+        if (loaded != null) {
+            int mp3Frame = (int) Math.min(frame / samplesPerFrame, loaded.getFrameCount() - 1);
+            mp3Frame = Math.max(0, mp3Frame - PRIMING_FRAMES);
+            openAt(loaded.byteOffsetOf(mp3Frame));
+            position = (long) mp3Frame * samplesPerFrame;
+        } else if (frame < position) {
+            openAt(0);
+            position = 0;
+        }
+
+        // drop the rest of the current frame if the target lies beyond it
+        long pendingFrames = pendingLength / format.getFrameSize();
+        if (pendingFrames > 0 && position + pendingFrames <= frame) {
+            position += pendingFrames;
+            pendingOffset = pendingLength = 0;
+        }
+        // whole frames out of the target's reach are passed over undecoded
+        while (pendingLength == 0 && position + (PRIMING_FRAMES + 1L) * samplesPerFrame <= frame && skipFrame()) {
+            position += samplesPerFrame;
+        }
+        // the frames just before the target only fill the reservoir; without theirs, they
+        // may decode short or to nothing, so they count as whole frames either way
+        while (pendingLength == 0 && position + samplesPerFrame <= frame && decodeFrame()) {
+            pendingOffset = pendingLength = 0;
+            position += samplesPerFrame;
+        }
+
+        // decode up to the requested frame and drop what precedes it
+        long skipBytes = (frame - position) * format.getFrameSize();
+        while (skipBytes > 0 && (pendingLength > 0 || decodeFrame())) {
+            int n = (int) Math.min(skipBytes, pendingLength);
+            pendingOffset += n;
+            pendingLength -= n;
+            skipBytes -= n;
+            position += n / format.getFrameSize();
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        length -= length % format.getFrameSize();
+        int total = 0;
+        while (total < length) {
+            if (pendingLength == 0 && !decodeFrame()) break;
+            int n = Math.min(length - total, pendingLength);
+            System.arraycopy(pending, pendingOffset, buffer, offset + total, n);
+            pendingOffset += n;
+            pendingLength -= n;
+            total += n;
+        }
+        if (total == 0) return -1;
+        position += total / format.getFrameSize();
+        return total;
+    }
+
+    /**
+     * Reads past the next frame without decoding it.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean skipFrame() throws IOException {
+        try {
+            if (bitstream.readFrame() == null) return false;
+            bitstream.closeFrame();
+            return true;
+        } catch (BitstreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Decodes the next frame into pending.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean decodeFrame() throws IOException {
+        try {
+            Header header = bitstream.readFrame();
+            if (header == null) return false;
+            decode(header);
+            return true;
+        } catch (BitstreamException | DecoderException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void decode(Header header) throws DecoderException {
+        SampleBuffer output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+        bitstream.closeFrame();
+
+        short[] samples = output.getBuffer();
+        int count = output.getBufferLength();
+        for (int i = 0; i < count; i++) {
+            pending[2 * i] = (byte) samples[i];
+            pending[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        pendingOffset = 0;
+        pendingLength = count * 2;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (bitstream != null) bitstream.close();
+        } catch (BitstreamException ignored) {}
+        if (input != null) input.close();
+    }
+}
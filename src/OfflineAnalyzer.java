@@ -0,0 +1,223 @@
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * OfflineAnalyzer computes the visualizer's band magnitudes for a whole track without
+ * playing it, and writes them to a BandFile.
+ *
+ * The track is decoded once, sequentially, into overlapping chunks of samples. Each chunk
+ * is analyzed on a fork-join pool that spans every core and writes its frames straight to
+ * their place in the output file, so chunks may finish in any order. A fixed pool of chunk
+ * buffers bounds memory: decoding waits for a free buffer when analysis falls behind.
+ *
+ * Needs neither a display nor a sound card:
+ *
+ *     java OfflineAnalyzer <input.mp3|input.wav> <output.bands> [hop]
+ */
+public class OfflineAnalyzer {
+    public static final int DEFAULT_HOP = 512;
+
+    // frames per chunk, and per leaf task once a chunk is split
+    private static final int CHUNK_FRAMES = 256;
+    private static final int LEAF_FRAMES = 32;
+
+    private static final ThreadLocal<SpectrumAnalyzer> ANALYZERS = ThreadLocal.withInitial(
+        () -> new SpectrumAnalyzer(SpectrumAnalyzer.DEFAULT_FFT_SIZE, SpectrumAnalyzer.DEFAULT_BANDS));
+
+    private final ForkJoinPool pool;
+    private final int hop;
+
+    public OfflineAnalyzer(ForkJoinPool pool, int hop) {
+        this.pool = pool;
+        this.hop = hop;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java OfflineAnalyzer <input.mp3|input.wav> <output.bands> [hop]");
+            System.exit(2);
+        }
+        int hop = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_HOP;
+
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        long start = System.nanoTime();
+        BandFile result = new OfflineAnalyzer(pool, hop).analyze(Path.of(args[0]), Path.of(args[1]));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double trackSeconds = result.frameCount * (double) hop / result.sampleRate;
+        pool.shutdown();
+
+        System.out.printf("%d frames of %d bands, %.1f s of audio in %.2f s (%.0fx real time)%n",
+            result.frameCount, result.bands, trackSeconds, seconds, trackSeconds / seconds);
+    }
+
+    /**
+     * Analyzes input and writes its band frames to output.
+     *
+     * @return the header of the written file
+     */
+    public BandFile analyze(Path input, Path output) throws Exception {
+        int fftSize = SpectrumAnalyzer.DEFAULT_FFT_SIZE;
+        int bands = SpectrumAnalyzer.DEFAULT_BANDS;
+        int chunkLength = CHUNK_FRAMES * hop + fftSize;
+
+        try (PcmSource source = PcmSource.open(input.toString());
+             FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            AudioFormat format = source.getFormat();
+
+            // two buffers per worker keeps every core busy while the decoder fills the next one
+            int bufferCount = pool.getParallelism() * 2;
+            BlockingQueue<float[]> buffers = new ArrayBlockingQueue<>(bufferCount);
+            for (int i = 0; i < bufferCount; i++) {
+                buffers.add(new float[chunkLength]);
+            }
+
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            byte[] bytes = new byte[Math.max(1, 8192 / format.getFrameSize()) * format.getFrameSize()];
+            float[] decoded = new float[bytes.length / format.getFrameSize()];
+
+            // chunk c holds samples from c * CHUNK_FRAMES * hop - fftSize on; the first
+            // fftSize samples of chunk 0 are the silence before the track starts
+            float[] chunk = buffers.take();
+            Arrays.fill(chunk, 0f);
+            int fill = fftSize;
+            long chunkIndex = 0;
+            long totalSamples = 0;
+
+            int bytesRead;
+            while ((bytesRead = source.read(bytes, 0, bytes.length)) != -1) {
+                int count = PcmConverter.toMono(bytes, bytesRead, format, decoded);
+                totalSamples += count;
+                int offset = 0;
+                while (offset < count) {
+                    int n = Math.min(count - offset, chunkLength - fill);
+                    System.arraycopy(decoded, offset, chunk, fill, n);
+                    fill += n;
+                    offset += n;
+
+                    if (fill == chunkLength) {
+                        tasks.add(pool.submit(new ChunkTask(chunk, chunkIndex * CHUNK_FRAMES, CHUNK_FRAMES, channel, buffers)));
+                        float[] next = buffers.take();
+                        // the next chunk starts with the last fftSize samples of this one
+                        System.arraycopy(chunk, CHUNK_FRAMES * hop, next, 0, fftSize);
+                        chunk = next;
+                        fill = fftSize;
+                        chunkIndex++;
+                    }
+                }
+            }
+
+            long frameCount = totalSamples / hop + 1;
+            int remaining = (int) (frameCount - chunkIndex * CHUNK_FRAMES);
+            if (remaining > 0) {
+                Arrays.fill(chunk, fill, chunkLength, 0f);
+                tasks.add(pool.submit(new ChunkTask(chunk, chunkIndex * CHUNK_FRAMES, remaining, channel, buffers)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+
+            BandFile header = new BandFile((int) format.getSampleRate(), hop, fftSize, bands, frameCount,
+                Files.size(input), Files.getLastModifiedTime(input).toMillis());
+            header.writeHeader(channel);
+            return header;
+        }
+    }
+
+    /**
+     * Analyzes the frames of one chunk, splitting into leaf tasks, then returns the
+     * chunk's buffer to the pool.
+     */
+    private final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final float[] samples;
+        private final long firstFrame;
+        private final int frames;
+        private final FileChannel channel;
+        private final BlockingQueue<float[]> buffers;
+
+        ChunkTask(float[] samples, long firstFrame, int frames, FileChannel channel, BlockingQueue<float[]> buffers) {
+            this.samples = samples;
+            this.firstFrame = firstFrame;
+            this.frames = frames;
+            this.channel = channel;
+            this.buffers = buffers;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                List<FramesTask> leaves = new ArrayList<>();
+                for (int from = 0; from < frames; from += LEAF_FRAMES) {
+                    leaves.add(new FramesTask(samples, firstFrame, from, Math.min(frames, from + LEAF_FRAMES), channel));
+                }
+                invokeAll(leaves);
+            } finally {
+                buffers.add(samples);
+            }
+        }
+    }
+
+    /**
+     * Analyzes frames [from, to) of a chunk and writes them with one positional write.
+     */
+    private final class FramesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final float[] samples;
+        private final long firstFrame;
+        private final int from;
+        private final int to;
+        private final FileChannel channel;
+
+        FramesTask(float[] samples, long firstFrame, int from, int to, FileChannel channel) {
+            this.samples = samples;
+            this.firstFrame = firstFrame;
+            this.from = from;
+            this.to = to;
+            this.channel = channel;
+        }
+
+        @Override
+        protected void compute() {
+            SpectrumAnalyzer analyzer = ANALYZERS.get();
+            int bands = analyzer.getBands();
+            float[] bandMagnitudes = new float[bands];
+            ByteBuffer out = ByteBuffer.allocate((to - from) * bands * 4).order(ByteOrder.LITTLE_ENDIAN);
+
+            // frame i of the chunk is the window ending i * hop samples past the chunk's fftSize mark
+            for (int i = from; i < to; i++) {
+                analyzer.analyze(samples, i * hop, bandMagnitudes);
+                for (float magnitude : bandMagnitudes) {
+                    out.putFloat(magnitude);
+                }
+            }
+
+            out.flip();
+            long position = BandFile.HEADER_SIZE + (firstFrame + from) * bands * 4L;
+            try {
+                while (out.hasRemaining()) {
+                    position += channel.write(out, position);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
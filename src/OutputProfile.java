@@ -0,0 +1,79 @@
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * OutputProfile sets how much audio AudioPlayer keeps queued in the output line, trading
+ * latency for resilience on a busy machine.
+ *
+ * The line is opened with room for getMaxMillis(), but only kept filled to a target that
+ * starts at getTargetMillis(), in writes of getChunkMillis() each, so the sound lags the
+ * decoder by about the target. The playback clock reads the line's frame position, so
+ * the visualizer stays in step with what is audible whatever the target is. After an
+ * underrun the target doubles, up to getMaxMillis(), and once playback has run without
+ * one for a while it comes back down a step at a time.
+ *
+ * The default is BALANCED, or the profile named by the visualizer.outputProfile system
+ * property: low-latency, balanced or robust.
+ */
+public enum OutputProfile {
+    // interactive installations: about 20 ms from decoder to speaker
+    LOW_LATENCY("Low latency", 20, 5, 160),
+    BALANCED("Balanced", 100, 10, 800),
+    // background playback on a loaded machine: dropouts matter, latency does not
+    ROBUST("Robust", 500, 40, 2000);
+
+    private final String label;
+    private final int targetMillis;
+    private final int chunkMillis;
+    private final int maxMillis;
+
+    OutputProfile(String label, int targetMillis, int chunkMillis, int maxMillis) {
+        this.label = label;
+        this.targetMillis = targetMillis;
+        this.chunkMillis = chunkMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * @return the profile named by the visualizer.outputProfile system property, or BALANCED
+     */
+    public static OutputProfile configured() {
+        String name = System.getProperty("visualizer.outputProfile");
+        for (OutputProfile profile : values()) {
+            if (profile.name().replace('_', '-').equalsIgnoreCase(name)) return profile;
+        }
+        return BALANCED;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return how much audio is kept queued in the line while playback runs cleanly
+     */
+    public int getTargetMillis() {
+        return targetMillis;
+    }
+
+    /**
+     * @return how much audio one write to the line holds
+     */
+    public int getChunkMillis() {
+        return chunkMillis;
+    }
+
+    /**
+     * @return the size of the line's buffer, and the most the target grows to after underruns
+     */
+    public int getMaxMillis() {
+        return maxMillis;
+    }
+
+    /**
+     * @return millis of audio in format as a number of bytes of whole frames, at least one frame
+     */
+    static int bytes(AudioFormat format, int millis) {
+        int frameSize = format.getFrameSize();
+        return Math.max(1, (int) (format.getFrameRate() * millis / 1000)) * frameSize;
+    }
+}
@@ -1,20 +1,61 @@
 /**
- * PCMBuffer is a singleton utility class that holds a fixed-length buffer of audio sample data
- * as a float array
+ * PCMBuffer is a singleton utility class that holds the recent history of decoded audio
+ * in a lock-free ring, one mono sample per frame
+ *
+ * Positions in the ring are frame positions of the output line, so the visualizer can
+ * look up exactly the window the playback clock says is audible, across track changes.
+ * The decoding thread is the only producer and the visualizer is the only consumer, so
+ * neither side ever blocks the other.
  */
 public class PCMBuffer {
-    private static final int FFT_SIZE = 1024;
-    private static final float[] buffer = new float[FFT_SIZE];
+    // comfortably larger than any output line buffer the decoders write ahead by
+    private static final int HISTORY_SIZE = 1 << 18;
+    private static final SampleRing ring = new SampleRing(HISTORY_SIZE);
 
-    public static synchronized void addSamples(float[] samples) {
-        int len = Math.min(samples.length, FFT_SIZE);
-        System.arraycopy(samples, 0, buffer, 0, len);
-        for (int i = len; i < FFT_SIZE; i++) {
-            buffer[i] = 0;
-        }
+    public static void addSamples(float[] samples, int offset, int length) {
+        ring.write(samples, offset, length);
     }
 
-    public static synchronized float[] getSamples() {
-        return buffer.clone();
+    public static void addSamples(short[] samples, int offset, int length, int channels) {
+        ring.write(samples, offset, length, channels);
+    }
+
+    /**
+     * Clears the history and restarts it at the given frame position. Called by the
+     * output thread before it writes the first frame to a newly opened line.
+     */
+    public static void reset(long framePosition) {
+        ring.reset(framePosition);
+    }
+
+    /**
+     * Copies the newest dst.length samples into dst.
+     *
+     * @return the frame position one past the last copied sample
+     */
+    public static long readLatest(float[] dst) {
+        return ring.readLatest(dst, 0, dst.length);
+    }
+
+    /**
+     * Copies the dst.length samples ending at the given frame position into dst.
+     *
+     * @return false if that window is not (or no longer) available
+     */
+    public static boolean read(long endPosition, float[] dst) {
+        return ring.read(endPosition, dst, 0, dst.length);
+    }
+
+    /**
+     * Copies the length samples ending at the given frame position into dst at offset.
+     *
+     * @return false if that window is not (or no longer) available
+     */
+    public static boolean read(long endPosition, float[] dst, int offset, int length) {
+        return ring.read(endPosition, dst, offset, length);
+    }
+
+    public static long getPosition() {
+        return ring.position();
     }
 }
@@ -0,0 +1,128 @@
+import javax.sound.sampled.AudioFormat;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * PcmConverter turns raw PCM bytes into normalized float samples for analysis.
+ *
+ * The sample layout is taken from the AudioFormat: 8, 16, 24 or 32-bit integer samples,
+ * signed or (8-bit only) unsigned, 32-bit float, either byte order, any number of
+ * interleaved channels, each sample filling its bytes exactly; padded layouts, such as
+ * 24-bit samples in 32-bit containers, are not supported. Multi-byte samples are read through byte array views, which are
+ * plain unaligned loads, straight from the caller's buffer into the caller's arrays, so
+ * converting allocates nothing. Mono and stereo 16-bit PCM, by far the most common, goes
+ * through Kernels and runs as SIMD code where available.
+ */
+public class PcmConverter {
+    private static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle SHORT_BE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle FLOAT_LE = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle FLOAT_BE = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+
+    private PcmConverter() {}
+
+    /**
+     * @return true if the samples of format can be converted
+     */
+    public static boolean isSupported(AudioFormat format) {
+        return SampleType.of(format) != null;
+    }
+
+    /**
+     * Converts raw PCM byte data into normalized mono float audio samples.
+     *
+     * The channels of each frame are averaged into a float in the range [-1.0, 1.0].
+     *
+     * @param data    the raw PCM byte array
+     * @param length  the number of valid bytes to decode
+     * @param format  the AudioFormat of the input data
+     * @param samples the reusable destination array, at least one entry per frame
+     * @return the number of decoded frames written to samples
+     * @throws IllegalArgumentException if the format is not supported
+     */
+    public static int toMono(byte[] data, int length, AudioFormat format, float[] samples) {
+        SampleType type = require(format);
+        int channels = format.getChannels();
+        int frameSize = format.getFrameSize();
+        int width = type.bytes;
+        int frameCount = length / frameSize;
+        float scale = 1f / channels;
+
+        if ((type == SampleType.S16_LE || type == SampleType.S16_BE) && channels <= 2) {
+            Kernels.pcm16ToMono(data, frameCount, channels, type == SampleType.S16_BE, samples);
+        } else if (channels == 1) {
+            for (int f = 0; f < frameCount; f++) {
+                samples[f] = read(data, f * frameSize, type);
+            }
+        } else {
+            for (int f = 0, p = 0; f < frameCount; f++, p += frameSize) {
+                float sum = 0f;
+                for (int c = 0; c < channels; c++) {
+                    sum += read(data, p + c * width, type);
+                }
+                samples[f] = sum * scale;
+            }
+        }
+        return frameCount;
+    }
+
+    private static SampleType require(AudioFormat format) {
+        SampleType type = SampleType.of(format);
+        if (type == null) throw new IllegalArgumentException("Unsupported PCM format: " + format);
+        return type;
+    }
+
+    private static float read(byte[] data, int i, SampleType type) {
+        switch (type) {
+            case U8: return ((data[i] & 0xFF) - 128) / 128f;
+            case S8: return data[i] / 128f;
+            case S16_LE: return (short) SHORT_LE.get(data, i) / 32768f;
+            case S16_BE: return (short) SHORT_BE.get(data, i) / 32768f;
+            case S24_LE: return ((data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8 | data[i + 2] << 16) / 8388608f;
+            case S24_BE: return (data[i] << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF)) / 8388608f;
+            case S32_LE: return (int) INT_LE.get(data, i) / 2147483648f;
+            case S32_BE: return (int) INT_BE.get(data, i) / 2147483648f;
+            case F32_LE: return (float) FLOAT_LE.get(data, i);
+            default: return (float) FLOAT_BE.get(data, i);
+        }
+    }
+
+    private enum SampleType {
+        U8(1), S8(1), S16_LE(2), S16_BE(2), S24_LE(3), S24_BE(3), S32_LE(4), S32_BE(4), F32_LE(4), F32_BE(4);
+
+        final int bytes;
+
+        SampleType(int bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the sample type of format, or null if it is not one we can read
+         */
+        static SampleType of(AudioFormat format) {
+            AudioFormat.Encoding encoding = format.getEncoding();
+            int bits = format.getSampleSizeInBits();
+            boolean big = format.isBigEndian();
+            // samples padded out to a wider container would be read from the wrong offsets
+            if (format.getChannels() < 1 || format.getFrameSize() != format.getChannels() * ((bits + 7) / 8)) return null;
+
+            if (AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding)) {
+                return bits == 8 ? U8 : null;
+            }
+            if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding)) {
+                return bits == 32 ? (big ? F32_BE : F32_LE) : null;
+            }
+            if (!AudioFormat.Encoding.PCM_SIGNED.equals(encoding)) return null;
+            switch (bits) {
+                case 8: return S8;
+                case 16: return big ? S16_BE : S16_LE;
+                case 24: return big ? S24_BE : S24_LE;
+                case 32: return big ? S32_BE : S32_LE;
+                default: return null;
+            }
+        }
+    }
+}
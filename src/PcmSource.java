@@ -0,0 +1,76 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * PcmSource is a seekable stream of interleaved PCM frames in a fixed AudioFormat.
+ *
+ * Reads and seeks always operate on whole frames, so a source can never hand the output
+ * line a buffer that starts or ends in the middle of a frame.
+ */
+public interface PcmSource extends Closeable {
+    /**
+     * Opens a track by what its first bytes hold. MP3 files are decoded ahead on a thread
+     * of their own, plain PCM WAV files are read directly and anything else goes through a
+     * conversion stream. Streams (see isStream) are opened as a StreamingSource.
+     */
+    static PcmSource open(String path) throws IOException, UnsupportedAudioFileException {
+        if (isStream(path)) return StreamingSource.open(path);
+
+        Path file = Path.of(path);
+        AudioContainer container = AudioContainer.of(file);
+        // an MP3 that starts with padding or junk before its first frame still goes by its name
+        if (container == AudioContainer.OTHER && path.endsWith(".mp3")) container = AudioContainer.MP3;
+        if (container == AudioContainer.MP3) return new DecodeAheadSource(new Mp3Source(file));
+        if (container == AudioContainer.WAV) {
+            PcmSource source = WavReader.open(file);
+            if (source != null) return source;
+        }
+        return new StreamPcmSource(file.toFile());
+    }
+
+    /**
+     * @return true if path names something that can only be read once from start to end:
+     *         "-" for standard input, an http or https URL, or a named pipe
+     */
+    static boolean isStream(String path) {
+        if (path.equals("-") || path.startsWith("http://") || path.startsWith("https://")) return true;
+        try {
+            return Files.readAttributes(Path.of(path), BasicFileAttributes.class).isOther();
+        } catch (IOException | InvalidPathException e) {
+            return false;
+        }
+    }
+
+    AudioFormat getFormat();
+
+    /**
+     * @return the length of the stream in frames, or AudioSystem.NOT_SPECIFIED if unknown
+     */
+    long getFrameLength();
+
+    /**
+     * @return false if the source can only be read from start to end, so that seek only
+     *         succeeds for the frame it is already at
+     */
+    default boolean isSeekable() {
+        return true;
+    }
+
+    /**
+     * Moves the read position to the given frame.
+     */
+    void seek(long frame) throws IOException;
+
+    /**
+     * Reads up to length bytes of whole frames into buffer.
+     *
+     * @return the number of bytes read, a multiple of the frame size, or -1 at the end
+     */
+    int read(byte[] buffer, int offset, int length) throws IOException;
+}
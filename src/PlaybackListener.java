@@ -0,0 +1,9 @@
+/**
+ * PlaybackListener is notified when an AudioPlayer changes state.
+ *
+ * Callbacks run on the player's control thread, so Swing code has to hand them over to
+ * the event dispatch thread.
+ */
+public interface PlaybackListener {
+    void stateChanged(PlaybackState state);
+}
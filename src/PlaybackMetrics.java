@@ -0,0 +1,235 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PlaybackMetrics is a singleton utility class that measures the playback and
+ * visualization hot paths: output-line underruns and buffer level, decode time per
+ * chunk on the decoder threads, how long the output thread waits for each read, analysis
+ * time, frame interval, paint time, and the latency from analysis to
+ * the frame reaching the screen.
+ *
+ * Every measurement goes into preallocated counters and LatencyHistograms, which never
+ * allocate, and is published over JMX under music-visualizer:type=PlaybackMetrics and
+ * music-visualizer:type=Latency,name=... . Each measurement is also emitted as a JFR
+ * event, but only while a recording has that event enabled; otherwise no event object
+ * is created, so the hot paths stay allocation-free unless someone is recording.
+ */
+public class PlaybackMetrics {
+    private static final String DOMAIN = "music-visualizer";
+
+    private static final LatencyHistogram decode = new LatencyHistogram();
+    private static final LatencyHistogram readWait = new LatencyHistogram();
+    private static final LatencyHistogram analysis = new LatencyHistogram();
+    private static final LatencyHistogram frameInterval = new LatencyHistogram();
+    private static final LatencyHistogram paint = new LatencyHistogram();
+    private static final LatencyHistogram analysisToPaint = new LatencyHistogram();
+
+    private static final AtomicLong underruns = new AtomicLong();
+    private static final AtomicLong skippedFrames = new AtomicLong();
+    private static volatile float lineBufferFill;
+
+    private static final EventType decodeEvent = eventType(DecodeEvent.class);
+    private static final EventType underrunEvent = eventType(UnderrunEvent.class);
+    private static final EventType analysisEvent = eventType(AnalysisEvent.class);
+    private static final EventType paintEvent = eventType(PaintEvent.class);
+
+    static {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new Counters(), new ObjectName(DOMAIN + ":type=PlaybackMetrics"));
+            register(server, "decode", decode);
+            register(server, "readWait", readWait);
+            register(server, "analysis", analysis);
+            register(server, "frameInterval", frameInterval);
+            register(server, "paint", paint);
+            register(server, "analysisToPaint", analysisToPaint);
+        } catch (Exception | LinkageError e) {
+            // metrics still work without JMX, e.g. when a second player registers first
+        }
+    }
+
+    private PlaybackMetrics() {}
+
+    /**
+     * @return the JFR type of the event class, or null if JFR is not available
+     */
+    private static EventType eventType(Class<? extends Event> eventClass) {
+        try {
+            return EventType.getEventType(eventClass);
+        } catch (RuntimeException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static boolean recording(EventType type) {
+        return type != null && type.isEnabled();
+    }
+
+    private static void register(MBeanServer server, String name, LatencyHistogram histogram) throws Exception {
+        server.registerMBean(histogram, new ObjectName(DOMAIN + ":type=Latency,name=" + name));
+    }
+
+    /**
+     * Records one read from a decoder, on the thread that decodes ahead of the output.
+     */
+    public static void recordDecode(long nanos, int bytes) {
+        decode.record(nanos);
+        if (recording(decodeEvent)) {
+            DecodeEvent event = new DecodeEvent();
+            event.decodeTime = nanos;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records how long one read from a PcmSource took on the output thread: for a track
+     * decoded ahead, the wait for a decoded chunk.
+     */
+    public static void recordReadWait(long nanos) {
+        readWait.record(nanos);
+    }
+
+    /**
+     * Records the output line's level just before a write, and an underrun if a line
+     * that has already been fed is found empty.
+     *
+     * @return true if it was an underrun
+     */
+    public static boolean recordLineLevel(int available, int bufferSize, boolean primed) {
+        lineBufferFill = bufferSize > 0 ? 1f - available / (float) bufferSize : 0f;
+        if (!primed || available < bufferSize) return false;
+        underruns.incrementAndGet();
+        if (recording(underrunEvent)) {
+            UnderrunEvent event = new UnderrunEvent();
+            event.bufferSize = bufferSize;
+            event.commit();
+        }
+        return true;
+    }
+
+    /**
+     * Records the time the render thread spent computing one frame's bands.
+     */
+    public static void recordAnalysis(long nanos, boolean live) {
+        analysis.record(nanos);
+        if (recording(analysisEvent)) {
+            AnalysisEvent event = new AnalysisEvent();
+            event.analysisTime = nanos;
+            event.live = live;
+            event.commit();
+        }
+    }
+
+    public static void recordFrameInterval(long nanos) {
+        frameInterval.record(nanos);
+    }
+
+    public static void recordSkippedFrames(long frames) {
+        skippedFrames.addAndGet(frames);
+    }
+
+    /**
+     * Records a paint on the event dispatch thread, and how long ago the bands it shows
+     * were computed.
+     */
+    public static void recordPaint(long nanos, long sinceAnalysis) {
+        paint.record(nanos);
+        analysisToPaint.record(sinceAnalysis);
+        if (recording(paintEvent)) {
+            PaintEvent event = new PaintEvent();
+            event.paintTime = nanos;
+            event.sinceAnalysis = sinceAnalysis;
+            event.commit();
+        }
+    }
+
+    private static final class Counters implements PlaybackMetricsMXBean {
+        @Override
+        public long getUnderruns() {
+            return underruns.get();
+        }
+
+        @Override
+        public double getLineBufferFill() {
+            return lineBufferFill;
+        }
+
+        @Override
+        public long getSkippedFrames() {
+            return skippedFrames.get();
+        }
+
+        @Override
+        public void reset() {
+            underruns.set(0);
+            skippedFrames.set(0);
+            decode.reset();
+            readWait.reset();
+            analysis.reset();
+            frameInterval.reset();
+            paint.reset();
+            analysisToPaint.reset();
+        }
+    }
+
+    @Name("musicvisualizer.Decode")
+    @Label("Decode Chunk")
+    @Category("Music Visualizer")
+    @Description("One read of PCM from a decoder, on the thread decoding ahead of the output")
+    static final class DecodeEvent extends Event {
+        @Label("Decode Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long decodeTime;
+
+        @Label("Bytes")
+        int bytes;
+    }
+
+    @Name("musicvisualizer.Underrun")
+    @Label("Output Underrun")
+    @Category("Music Visualizer")
+    @Description("The output line ran out of audio while playing")
+    static final class UnderrunEvent extends Event {
+        @Label("Buffer Size")
+        int bufferSize;
+    }
+
+    @Name("musicvisualizer.Analysis")
+    @Label("Band Analysis")
+    @Category("Music Visualizer")
+    @Description("Computing one visualizer frame's bands on the render thread")
+    static final class AnalysisEvent extends Event {
+        @Label("Analysis Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long analysisTime;
+
+        @Label("Live")
+        @Description("Computed from PCM rather than looked up in a cached spectrogram")
+        boolean live;
+    }
+
+    @Name("musicvisualizer.Paint")
+    @Label("Paint")
+    @Category("Music Visualizer")
+    @Description("Drawing one visualizer frame on the event dispatch thread")
+    static final class PaintEvent extends Event {
+        @Label("Paint Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long paintTime;
+
+        @Label("Since Analysis")
+        @Timespan(Timespan.NANOSECONDS)
+        long sinceAnalysis;
+    }
+}
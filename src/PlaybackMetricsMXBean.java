@@ -0,0 +1,21 @@
+/**
+ * Management interface of the playback and visualizer counters in PlaybackMetrics.
+ */
+public interface PlaybackMetricsMXBean {
+    /**
+     * @return how many times the output line ran dry while playing
+     */
+    long getUnderruns();
+
+    /**
+     * @return how full the output line's buffer was before the last write, 0 to 1
+     */
+    double getLineBufferFill();
+
+    /**
+     * @return how many visualizer frames the render thread missed by falling behind
+     */
+    long getSkippedFrames();
+
+    void reset();
+}
@@ -0,0 +1,9 @@
+/**
+ * The states an AudioPlayer moves through. STOPPED covers both "nothing loaded" and
+ * "finished playing"; a stopped player can still resume its last track from the start.
+ */
+public enum PlaybackState {
+    STOPPED,
+    PLAYING,
+    PAUSED
+}
@@ -0,0 +1,88 @@
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+
+/**
+ * PrefetchedTrack is a queued track whose source has been opened, and whose first frames
+ * have been decoded into a bounded buffer, ahead of the moment it starts playing.
+ *
+ * Reads are served from that buffer first and then from the source, so the output thread
+ * can move on to the track without waiting for a file open or a decoder warm-up.
+ */
+public class PrefetchedTrack implements PcmSource {
+    private final String path;
+    private final String name;
+    private final PcmSource source;
+    private final byte[] head;
+    private final int headLength;
+    private int headPosition;
+
+    /**
+     * Decodes up to maxBytes from the start of source. Runs on the prefetch worker.
+     */
+    public PrefetchedTrack(String path, String name, PcmSource source, int maxBytes) throws IOException {
+        this.path = path;
+        this.name = name;
+        this.source = source;
+
+        int frameSize = source.getFormat().getFrameSize();
+        this.head = new byte[maxBytes - maxBytes % frameSize];
+        int length = 0;
+        int n;
+        while (length < head.length && (n = source.read(head, length, head.length - length)) != -1) {
+            length += n;
+        }
+        this.headLength = length;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return source.getFormat();
+    }
+
+    @Override
+    public long getFrameLength() {
+        return source.getFrameLength();
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return source.isSeekable();
+    }
+
+    @Override
+    public void seek(long frame) throws IOException {
+        long byteOffset = frame * getFormat().getFrameSize();
+        if (byteOffset <= headLength) {
+            headPosition = (int) byteOffset;
+            source.seek(headLength / getFormat().getFrameSize());
+        } else {
+            headPosition = headLength;
+            source.seek(frame);
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (headPosition < headLength) {
+            int frameSize = getFormat().getFrameSize();
+            int n = Math.min(length - length % frameSize, headLength - headPosition);
+            System.arraycopy(head, headPosition, buffer, offset, n);
+            headPosition += n;
+            return n;
+        }
+        return source.read(buffer, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
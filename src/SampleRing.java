@@ -0,0 +1,147 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * SampleRing is a lock-free single-producer/single-consumer ring buffer of float samples.
+ *
+ * The producer appends samples and publishes a monotonically increasing write position.
+ * The consumer copies windows of the sample history by absolute position without blocking
+ * the producer. Like a seqlock, the producer announces how far a write will reach before
+ * it stores any sample, and publishes the position only once it has stored them all; a
+ * reader checks its window against the announced end after copying, so a window that was
+ * overwritten while it was being copied, even by a write still in progress, is reported
+ * as a failed read rather than returned torn. Neither side allocates.
+ */
+public class SampleRing {
+    private static final VarHandle POSITION;
+    private static final VarHandle WRITING;
+
+    static {
+        try {
+            POSITION = MethodHandles.lookup().findVarHandle(SampleRing.class, "position", long.class);
+            WRITING = MethodHandles.lookup().findVarHandle(SampleRing.class, "writing", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final float[] ring;
+    private final int mask;
+
+    // total number of samples ever written, published with release semantics
+    @SuppressWarnings("unused")
+    private long position;
+    // where the write in progress will end, announced before any of its samples are stored
+    @SuppressWarnings("unused")
+    private long writing;
+
+    public SampleRing(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity - 1)) << 1;
+        this.ring = new float[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    /**
+     * @return the absolute position one past the newest published sample
+     */
+    public long position() {
+        return (long) POSITION.getAcquire(this);
+    }
+
+    /**
+     * Clears the history and restarts the write position. Producer side only.
+     */
+    public void reset(long newPosition) {
+        // fails every read that overlaps the clearing
+        begin(Long.MAX_VALUE);
+        Arrays.fill(ring, 0f);
+        POSITION.setRelease(this, newPosition);
+        WRITING.setRelease(this, newPosition);
+    }
+
+    /**
+     * Announces that the samples up to end are about to be stored, before any of them is.
+     */
+    private void begin(long end) {
+        WRITING.setOpaque(this, end);
+        VarHandle.storeStoreFence();
+    }
+
+    /**
+     * Appends samples to the ring. Producer side only.
+     */
+    public void write(float[] src, int off, int len) {
+        long pos = (long) POSITION.getOpaque(this);
+        int skip = Math.max(0, len - ring.length);
+        int idx = (int) ((pos + skip) & mask);
+        int count = len - skip;
+        begin(pos + len);
+        int first = Math.min(count, ring.length - idx);
+        System.arraycopy(src, off + skip, ring, idx, first);
+        System.arraycopy(src, off + skip + first, ring, 0, count - first);
+        POSITION.setRelease(this, pos + len);
+    }
+
+    /**
+     * Appends interleaved 16-bit frames to the ring, averaging the channels of each frame
+     * into one sample normalized to [-1.0, 1.0]. Producer side only.
+     *
+     * @param len the number of shorts to consume, a multiple of channels
+     */
+    public void write(short[] src, int off, int len, int channels) {
+        long pos = (long) POSITION.getOpaque(this);
+        int frames = len / channels;
+        int skip = Math.max(0, frames - ring.length);
+        float scale = 1f / (32768f * channels);
+        begin(pos + frames);
+        for (int f = skip; f < frames; f++) {
+            int sum = 0;
+            for (int c = 0; c < channels; c++) {
+                sum += src[off + f * channels + c];
+            }
+            ring[(int) ((pos + f) & mask)] = sum * scale;
+        }
+        POSITION.setRelease(this, pos + frames);
+    }
+
+    /**
+     * Copies the {@code len} samples that end at absolute position {@code end} into dst.
+     *
+     * @return false if the window has not been written yet or has already been overwritten
+     */
+    public boolean read(long end, float[] dst, int off, int len) {
+        long written = (long) POSITION.getAcquire(this);
+        long start = end - len;
+        if (end > written || len > ring.length || start < written - ring.length) return false;
+
+        int idx = (int) (start & mask);
+        int first = Math.min(len, ring.length - idx);
+        System.arraycopy(ring, idx, dst, off, first);
+        System.arraycopy(ring, 0, dst, off + first, len - first);
+
+        // the producer may have lapped the window while we were copying it, or be lapping
+        // it now: any sample copied from a write is covered by the end that write announced
+        VarHandle.loadLoadFence();
+        long writing = (long) WRITING.getAcquire(this);
+        return start >= writing - ring.length;
+    }
+
+    /**
+     * Copies the newest {@code len} samples into dst.
+     *
+     * @return the absolute position one past the last copied sample
+     */
+    public long readLatest(float[] dst, int off, int len) {
+        for (int attempt = 0; attempt < 4; attempt++) {
+            long end = position();
+            if (read(end, dst, off, len)) return end;
+        }
+        Arrays.fill(dst, off, off + len, 0f);
+        return position();
+    }
+}
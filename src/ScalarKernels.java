@@ -0,0 +1,60 @@
+/**
+ * ScalarKernels are the plain loop versions of the per-sample and per-bin kernels in
+ * Kernels. They run everywhere, and they are the reference VectorKernels is checked
+ * against.
+ */
+public class ScalarKernels {
+    private ScalarKernels() {}
+
+    /**
+     * Writes a[aOffset + i] * b[i] into out[i] for i in 0..length-1.
+     */
+    public static void multiply(float[] a, int aOffset, float[] b, float[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = a[aOffset + i] * b[i];
+        }
+    }
+
+    /**
+     * Writes the magnitude of the complex value (re[i], im[i]) into out[i] for i in
+     * 0..length-1.
+     */
+    public static void magnitudes(float[] re, float[] im, float[] out, int length) {
+        for (int k = 0; k < length; k++) {
+            out[k] = (float) Math.sqrt(re[k] * re[k] + im[k] * im[k]);
+        }
+    }
+
+    /**
+     * @return the sum of values[from..to-1]
+     */
+    public static float sum(float[] values, int from, int to) {
+        float sum = 0f;
+        for (int j = from; j < to; j++) {
+            sum += values[j];
+        }
+        return sum;
+    }
+
+    /**
+     * Converts frames from..to-1 of 16-bit signed PCM with one or two channels into
+     * normalized mono samples out[from..to-1], averaging the channels of each frame.
+     */
+    public static void pcm16ToMono(byte[] data, int from, int to, int channels, boolean bigEndian, float[] out) {
+        int hi = bigEndian ? 0 : 1;
+        int lo = 1 - hi;
+        if (channels == 1) {
+            for (int f = from; f < to; f++) {
+                int i = 2 * f;
+                out[f] = (short) (data[i + hi] << 8 | data[i + lo] & 0xFF) / 32768f;
+            }
+        } else {
+            for (int f = from; f < to; f++) {
+                int i = 4 * f;
+                float left = (short) (data[i + hi] << 8 | data[i + lo] & 0xFF) / 32768f;
+                float right = (short) (data[i + 2 + hi] << 8 | data[i + 2 + lo] & 0xFF) / 32768f;
+                out[f] = (left + right) * 0.5f;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SidecarCache locates the small binary files derived from audio files (frame indexes,
+ * analysis results) and validates that they still describe the file on disk.
+ *
+ * Entries live in one cache directory, named by a hash of the source path, and begin
+ * with a common header: magic, format version, source path, size and modification time.
+ * An entry whose header does not match the current file is treated as missing.
+ *
+ * The directory defaults to ~/.cache/music-visualizer and can be moved with the
+ * visualizer.cacheDir system property.
+ */
+public class SidecarCache {
+    private SidecarCache() {}
+
+    public static Path directory() {
+        String configured = System.getProperty("visualizer.cacheDir");
+        if (configured != null) return Path.of(configured);
+        return Path.of(System.getProperty("user.home"), ".cache", "music-visualizer");
+    }
+
+    /**
+     * @return the cache entry for the given source file and entry kind, e.g. "mp3idx"
+     */
+    public static Path entry(Path source, String kind) {
+        String key = source.toAbsolutePath().normalize().toString();
+        return directory().resolve(hash(key) + "." + kind);
+    }
+
+    public static void writeHeader(DataOutputStream out, Path source, int magic, int version) throws IOException {
+        out.writeInt(magic);
+        out.writeInt(version);
+        out.writeUTF(source.toAbsolutePath().normalize().toString());
+        out.writeLong(Files.size(source));
+        out.writeLong(Files.getLastModifiedTime(source).toMillis());
+    }
+
+    /**
+     * @return true if the header just read from in describes the current state of source
+     */
+    public static boolean readHeader(DataInputStream in, Path source, int magic, int version) throws IOException {
+        if (in.readInt() != magic || in.readInt() != version) return false;
+        String path = in.readUTF();
+        long size = in.readLong();
+        long modified = in.readLong();
+        return path.equals(source.toAbsolutePath().normalize().toString())
+            && size == Files.size(source)
+            && modified == Files.getLastModifiedTime(source).toMillis();
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 12; i++) {
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
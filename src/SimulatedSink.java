@@ -0,0 +1,211 @@
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+
+/**
+ * SimulatedSink is an AudioSink without a device: it discards the samples written to it
+ * and plays them only on a clock of its own.
+ *
+ * While started, the clock consumes frames at the format's frame rate times speed,
+ * measured on System.nanoTime, so to its writer and to the playback clock the sink
+ * behaves like a sound card with a buffer of the requested size: writes block while the
+ * buffer is full, the frame position advances with time, and it runs dry and waits when
+ * it is not fed. It keeps a record of when every write happened and of when playback
+ * started from a standstill, so nanoTimeOf and writtenAt can say when any frame was
+ * played and written, which lets a harness time a sample all the way to the screen.
+ */
+public class SimulatedSink implements AudioSink {
+    private final AudioFormat format;
+    private final int frameSize;
+    private final long bufferFrames;
+    private final double framesPerNano;
+
+    // guarded by this
+    private long written;
+    private double played;
+    private long updated = System.nanoTime();
+    private boolean running;
+    // played has caught up with written while running
+    private boolean starved;
+    private int flushes;
+    private boolean closed;
+
+    // frame playSince[i] was played at playAt[i], and playback ran steadily until the next
+    private long[] playSince = new long[16];
+    private long[] playAt = new long[16];
+    private int playCount;
+    // the write that started at frame writeSince[i] happened at writeAt[i]
+    private long[] writeSince = new long[1024];
+    private long[] writeAt = new long[1024];
+    private int writeCount;
+
+    public SimulatedSink(AudioFormat format, int bufferBytes, double speed) {
+        this.format = format;
+        this.frameSize = format.getFrameSize();
+        this.bufferFrames = Math.max(1, bufferBytes / frameSize);
+        this.framesPerNano = format.getFrameRate() * speed / 1e9;
+    }
+
+    /**
+     * Runs the playback clock up to now.
+     */
+    private void advance(long now) {
+        if (running && !starved) {
+            double next = played + (now - updated) * framesPerNano;
+            if (next >= written) {
+                played = written;
+                starved = true;
+            } else {
+                played = next;
+            }
+        }
+        updated = now;
+    }
+
+    /**
+     * Notes that playback carries on steadily from frame at now.
+     */
+    private void resumeAt(long frame, long now) {
+        if (playCount == playSince.length) {
+            playSince = Arrays.copyOf(playSince, playCount * 2);
+            playAt = Arrays.copyOf(playAt, playCount * 2);
+        }
+        playSince[playCount] = frame;
+        playAt[playCount] = now;
+        playCount++;
+        starved = false;
+    }
+
+    /**
+     * @return the System.nanoTime at which frame was or, if playback carries on steadily,
+     *         will be played, or -1 if playback has not reached that far yet
+     */
+    public synchronized long nanoTimeOf(long frame) {
+        int i = lastAtOrBefore(playSince, playCount, frame);
+        if (i < 0) return -1;
+        return playAt[i] + Math.round((frame - playSince[i]) / framesPerNano);
+    }
+
+    /**
+     * @return the System.nanoTime of the write that handed over frame, or -1 if it has
+     *         not been written
+     */
+    public synchronized long writtenAt(long frame) {
+        if (frame >= written) return -1;
+        int i = lastAtOrBefore(writeSince, writeCount, frame);
+        return i < 0 ? -1 : writeAt[i];
+    }
+
+    private static int lastAtOrBefore(long[] frames, int count, long frame) {
+        int index = Arrays.binarySearch(frames, 0, count, frame);
+        // several entries can share a frame; the last of them is the one in effect
+        if (index >= 0) {
+            while (index + 1 < count && frames[index + 1] == frame) index++;
+            return index;
+        }
+        return -index - 2;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return (int) (bufferFrames * frameSize);
+    }
+
+    @Override
+    public synchronized int available() {
+        advance(System.nanoTime());
+        return (int) ((bufferFrames - (written - (long) played)) * frameSize);
+    }
+
+    @Override
+    public synchronized long getLongFramePosition() {
+        advance(System.nanoTime());
+        return (long) played;
+    }
+
+    @Override
+    public synchronized void start() {
+        long now = System.nanoTime();
+        advance(now);
+        if (running) return;
+        running = true;
+        starved = true;
+        if (written > played) resumeAt((long) played, now);
+    }
+
+    @Override
+    public synchronized void stop() {
+        advance(System.nanoTime());
+        running = false;
+    }
+
+    @Override
+    public synchronized void flush() {
+        advance(System.nanoTime());
+        written = (long) played;
+        played = written;
+        starved = true;
+        flushes++;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void drain() {
+        while (!closed && running && played < written) {
+            try {
+                wait(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            advance(System.nanoTime());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        advance(System.nanoTime());
+        running = false;
+        closed = true;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized int write(byte[] buffer, int offset, int length) {
+        length -= length % frameSize;
+        int flush = flushes;
+        int done = 0;
+        while (done < length && !closed && flushes == flush) {
+            long now = System.nanoTime();
+            advance(now);
+            long room = bufferFrames - (written - (long) played);
+            if (room <= 0) {
+                try {
+                    wait(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+
+            if (writeCount == writeSince.length) {
+                writeSince = Arrays.copyOf(writeSince, writeCount * 2);
+                writeAt = Arrays.copyOf(writeAt, writeCount * 2);
+            }
+            writeSince[writeCount] = written;
+            writeAt[writeCount] = now;
+            writeCount++;
+            if (running && starved) resumeAt(written, now);
+
+            int frames = (int) Math.min(room, (length - done) / frameSize);
+            written += frames;
+            done += frames * frameSize;
+        }
+        return done;
+    }
+}
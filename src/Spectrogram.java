@@ -0,0 +1,60 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Spectrogram is a BandFile mapped into memory for playback.
+ *
+ * Looking up the bands for a playback position is an index computation and a copy of
+ * one frame out of the page cache; no decoding or FFT is involved. The mapping stays
+ * valid after the file is closed and is released when the Spectrogram is collected.
+ */
+public class Spectrogram {
+    private final BandFile header;
+    private final FloatBuffer frames;
+
+    private Spectrogram(BandFile header, FloatBuffer frames) {
+        this.header = header;
+        this.frames = frames;
+    }
+
+    /**
+     * @return the mapped file, or null if it is not a complete band file of this version
+     */
+    public static Spectrogram map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            BandFile header = BandFile.readHeader(channel);
+            if (header == null) return null;
+            long end = header.frameOffset(header.frameCount);
+            // a single mapping covers about a day of audio at the default hop
+            if (channel.size() < end || end > Integer.MAX_VALUE) return null;
+
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, BandFile.HEADER_SIZE,
+                end - BandFile.HEADER_SIZE);
+            return new Spectrogram(header, mapped.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+        }
+    }
+
+    public BandFile getHeader() {
+        return header;
+    }
+
+    /**
+     * Copies the bands of the window that ends at the given sample frame of the track.
+     *
+     * @return false if the frame lies past the end of the track
+     */
+    public boolean read(long sampleFrame, float[] bandMagnitudes) {
+        long t = Math.max(0, sampleFrame) / header.hop;
+        if (t >= header.frameCount) return false;
+        int offset = (int) (t * header.bands);
+        for (int i = 0; i < header.bands; i++) {
+            bandMagnitudes[i] = frames.get(offset + i);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * SpectrogramCache keeps a precomputed Spectrogram of every track that has been played,
+ * so that replaying a track costs no FFT work at all.
+ *
+ * Spectrograms are BandFiles stored in the SidecarCache directory. The entry name carries
+ * the analysis parameters (hop, FFT size, band count) and the header carries the source
+ * file's size and modification time, so a change to either makes the entry miss. A missed
+ * track is analyzed once in the background with OfflineAnalyzer and published atomically.
+ *
+ * Entries are evicted least recently used first, by modification time, which is bumped
+ * on every use, whenever their total size exceeds the budget set by the
+ * visualizer.spectrogramBudgetMB system property (256 MB by default).
+ */
+public class SpectrogramCache {
+    public static final int HOP = OfflineAnalyzer.DEFAULT_HOP;
+    private static final String KIND = "bands-" + HOP + "-" + SpectrumAnalyzer.DEFAULT_FFT_SIZE
+        + "-" + SpectrumAnalyzer.DEFAULT_BANDS;
+    private static final long DEFAULT_BUDGET_MB = 256;
+
+    private static final Map<Path, CompletableFuture<Spectrogram>> pending = new ConcurrentHashMap<>();
+    private static final ExecutorService analyzer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "spectrogram-cache");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private SpectrogramCache() {}
+
+    /**
+     * Returns the spectrogram of a track. The future is already complete when the track
+     * is cached, and otherwise completes once background analysis has produced it.
+     */
+    public static CompletableFuture<Spectrogram> get(Path source) {
+        Path key = source.toAbsolutePath().normalize();
+        try {
+            Spectrogram cached = lookup(key);
+            if (cached != null) return CompletableFuture.completedFuture(cached);
+        } catch (IOException ignored) {
+            // an unreadable entry is rebuilt like a missing one
+        }
+        return pending.computeIfAbsent(key, k -> {
+            CompletableFuture<Spectrogram> future = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return build(k);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }, analyzer);
+            // removed from the worker, never from inside this computeIfAbsent
+            future.whenCompleteAsync((spectrogram, error) -> pending.remove(k), analyzer);
+            return future;
+        });
+    }
+
+    private static Spectrogram lookup(Path source) throws IOException {
+        Path entry = SidecarCache.entry(source, KIND);
+        if (!Files.exists(entry)) return null;
+        Spectrogram spectrogram = Spectrogram.map(entry);
+        if (spectrogram == null || !describes(spectrogram.getHeader(), source)) return null;
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        return spectrogram;
+    }
+
+    private static boolean describes(BandFile header, Path source) throws IOException {
+        return header.hop == HOP
+            && header.fftSize == SpectrumAnalyzer.DEFAULT_FFT_SIZE
+            && header.bands == SpectrumAnalyzer.DEFAULT_BANDS
+            && header.sourceSize == Files.size(source)
+            && header.sourceModified == Files.getLastModifiedTime(source).toMillis();
+    }
+
+    private static Spectrogram build(Path source) throws Exception {
+        Path entry = SidecarCache.entry(source, KIND);
+        Files.createDirectories(entry.getParent());
+        Path partial = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), ".tmp");
+        try {
+            // a spare core is plenty: this only has to outrun playback
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+            try {
+                new OfflineAnalyzer(pool, HOP).analyze(source, partial);
+            } finally {
+                pool.shutdown();
+            }
+            Files.move(partial, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+        evict(entry);
+        return Spectrogram.map(entry);
+    }
+
+    /**
+     * Deletes the least recently used spectrograms, other than keep, until the total size
+     * fits the budget.
+     */
+    private static void evict(Path keep) throws IOException {
+        long budget = Long.getLong("visualizer.spectrogramBudgetMB", DEFAULT_BUDGET_MB) * 1024 * 1024;
+        List<Path> entries = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(keep.getParent(), "*.bands-*")) {
+            for (Path entry : stream) {
+                if (entry.toString().endsWith(".tmp")) continue;
+                entries.add(entry);
+                total += Files.size(entry);
+            }
+        }
+        if (total <= budget) return;
+
+        Map<Path, Long> lastUsed = new HashMap<>();
+        for (Path entry : entries) {
+            lastUsed.put(entry, Files.getLastModifiedTime(entry).toMillis());
+        }
+        entries.sort(Comparator.comparing(lastUsed::get));
+        for (Path entry : entries) {
+            if (total <= budget) break;
+            if (entry.equals(keep)) continue;
+            long size = Files.size(entry);
+            try {
+                Files.delete(entry);
+                total -= size;
+            } catch (IOException ignored) {
+                // still mapped on a platform that forbids deleting it; try again next time
+            }
+        }
+    }
+}
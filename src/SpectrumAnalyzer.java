@@ -0,0 +1,59 @@
+/**
+ * SpectrumAnalyzer reduces a window of mono samples to clamped band magnitudes.
+ *
+ * The spectrum comes from a Hann-windowed FftEngine and the bins are averaged into
+ * equally wide bands, the same reduction the live visualizer and the offline analysis
+ * use, so both produce identical frames for identical input. Not thread-safe.
+ */
+public class SpectrumAnalyzer {
+    public static final int DEFAULT_FFT_SIZE = 1024;
+    public static final int DEFAULT_BANDS = 64;
+    private static final float MIN_CLAMP = 0.02f;
+    private static final float MAX_CLAMP = 1.0f;
+
+    private final int fftSize;
+    private final int bands;
+    private final FftEngine fftEngine;
+    private final float[] binMagnitudes;
+
+    public SpectrumAnalyzer(int fftSize, int bands) {
+        this.fftSize = fftSize;
+        this.bands = bands;
+        this.fftEngine = new FftEngine(fftSize, FftEngine.WindowType.HANN);
+        this.binMagnitudes = new float[fftSize / 2];
+    }
+
+    public int getFftSize() {
+        return fftSize;
+    }
+
+    public int getBands() {
+        return bands;
+    }
+
+    /**
+     * Analyzes fftSize samples starting at offset and writes one magnitude per band into
+     * bandMagnitudes.
+     */
+    public void analyze(float[] samples, int offset, float[] bandMagnitudes) {
+        analyze(samples, offset, binMagnitudes, bandMagnitudes);
+    }
+
+    /**
+     * Like analyze(samples, offset, bandMagnitudes), and also writes the fftSize / 2 bin
+     * magnitudes the bands were averaged from into binMagnitudes.
+     */
+    public void analyze(float[] samples, int offset, float[] binMagnitudes, float[] bandMagnitudes) {
+        fftEngine.magnitudes(samples, offset, binMagnitudes);
+
+        for (int i = 0; i < bands; i++) {
+            int start = i * (fftSize / 2) / bands;
+            int end = (i + 1) * (fftSize / 2) / bands;
+            float avg = Kernels.sum(binMagnitudes, start, end) / (end - start);
+
+            // clamp magnitude
+            avg = Math.max(MIN_CLAMP, Math.min(MAX_CLAMP, avg));
+            bandMagnitudes[i] = avg;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * StreamPcmSource reads any file javax.sound.sampled understands. Integer PCM is read as
+ * it is, at any sample size PcmConverter handles; only other encodings (compressed or
+ * float, which output lines do not take) are converted to 16-bit signed PCM.
+ *
+ * This is the fallback for files WavReader cannot read directly. Forward seeks skip
+ * whole frames on the open stream; only a backward seek reopens the file. Given an
+ * AudioInputStream instead of a file, it has nothing to reopen and cannot seek backwards.
+ */
+public class StreamPcmSource implements PcmSource {
+    private final File file;
+    private AudioInputStream stream;
+    private AudioFormat format;
+    private long position;
+
+    public StreamPcmSource(File file) throws IOException, UnsupportedAudioFileException {
+        this.file = file;
+        open(AudioSystem.getAudioInputStream(file));
+    }
+
+    public StreamPcmSource(AudioInputStream stream) {
+        this.file = null;
+        open(stream);
+    }
+
+    private void open(AudioInputStream originalStream) {
+        AudioFormat baseFormat = originalStream.getFormat();
+        AudioFormat workingFormat = baseFormat;
+
+        if (!isIntegerPcm(workingFormat)) {
+            workingFormat = new AudioFormat(
+                AudioFormat.Encoding.PCM_SIGNED,
+                baseFormat.getSampleRate(),
+                16,
+                baseFormat.getChannels(),
+                baseFormat.getChannels() * 2,
+                baseFormat.getSampleRate(),
+                false
+            );
+            originalStream = AudioSystem.getAudioInputStream(workingFormat, originalStream);
+        }
+
+        stream = originalStream;
+        format = workingFormat;
+        position = 0;
+    }
+
+    private static boolean isIntegerPcm(AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        return (AudioFormat.Encoding.PCM_SIGNED.equals(encoding) || AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding))
+            && PcmConverter.isSupported(format);
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return stream.getFrameLength();
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return file != null;
+    }
+
+    @Override
+    public void seek(long frame) throws IOException {
+        if (frame < position) {
+            if (file == null) throw new IOException("Cannot seek backwards in a stream");
+            stream.close();
+            try {
+                open(AudioSystem.getAudioInputStream(file));
+            } catch (UnsupportedAudioFileException e) {
+                throw new IOException(e);
+            }
+        }
+
+        long skipBytes = (frame - position) * format.getFrameSize();
+        while (skipBytes > 0) {
+            long skipped = stream.skip(skipBytes);
+            if (skipped <= 0) break;
+            skipBytes -= skipped;
+            position += skipped / format.getFrameSize();
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int n = stream.read(buffer, offset, length - length % format.getFrameSize());
+        if (n > 0) position += n / format.getFrameSize();
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+}
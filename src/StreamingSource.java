@@ -0,0 +1,332 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * StreamingSource plays audio that can only be read once, from start to end, as it
+ * arrives: standard input, a named pipe, an HTTP response, or any InputStream or
+ * ReadableByteChannel a caller has.
+ *
+ * The container is sniffed from the first bytes by AudioContainer. A decoder thread of
+ * its own reads and decodes the stream into a bounded jitter buffer of PCM, at most
+ * CAPACITY_MILLIS ahead of the reader, and waits while the buffer is full, so a producer
+ * faster than real time is held back rather than piling up. Reading starts, and starts
+ * over after the buffer has run dry, only once PREBUFFER_MILLIS of audio are buffered;
+ * until then reads return silence instead of blocking, so a producer that stalls makes
+ * the player play silence and stay responsive rather than stutter or hang.
+ *
+ * The length of a stream is unknown, and it can only seek to the frame it is already at.
+ * Reads must come from one thread at a time.
+ */
+public class StreamingSource implements PcmSource {
+    public static final int PREBUFFER_MILLIS = Integer.getInteger("visualizer.streamPrebufferMillis", 150);
+    public static final int CAPACITY_MILLIS = 2000;
+    private static final int SILENCE_MILLIS = 10;
+    private static final int OPEN_TIMEOUT_SECONDS = 10;
+    private static final int CHUNK_BYTES = 8192;
+
+    private static final int RIFF_HEADER = 12;
+    private static final int FMT = 0x20746d66; // "fmt " read little-endian
+    private static final int DATA = 0x61746164;
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xfffe;
+
+    private final Callable<InputStream> opener;
+    private final CompletableFuture<AudioFormat> opened = new CompletableFuture<>();
+    private volatile InputStream input;
+
+    // set by the decoder before opened completes
+    private AudioFormat format;
+    private int frameSize;
+    private byte[] ring;
+    private int prebuffer;
+    private int silenceBytes;
+    private byte silence;
+
+    // the jitter buffer, guarded by lock
+    private final Object lock = new Object();
+    private int head;
+    private int count;
+    private boolean buffering = true;
+    private boolean ended;
+    private boolean closed;
+    private Exception error;
+
+    // reader state
+    private long position;
+
+    private StreamingSource(Callable<InputStream> opener) {
+        this.opener = opener;
+        Thread decoder = new Thread(this::decodeLoop, "stream-decoder");
+        decoder.setDaemon(true);
+        decoder.start();
+    }
+
+    public static StreamingSource open(InputStream stream) throws IOException, UnsupportedAudioFileException {
+        return open(() -> stream);
+    }
+
+    public static StreamingSource open(ReadableByteChannel channel) throws IOException, UnsupportedAudioFileException {
+        return open(() -> Channels.newInputStream(channel));
+    }
+
+    /**
+     * Opens one of the locations PcmSource.isStream accepts.
+     */
+    static StreamingSource open(String location) throws IOException, UnsupportedAudioFileException {
+        if (location.equals("-")) {
+            // standard input is shared with whoever plays it next, so it stays open
+            return open(() -> new FilterInputStream(System.in) {
+                @Override
+                public void close() {}
+            });
+        }
+        if (location.startsWith("http://") || location.startsWith("https://")) {
+            return open(() -> URI.create(location).toURL().openStream());
+        }
+        // opening a named pipe waits for a writer, so it happens on the decoder thread too
+        return open(() -> new FileInputStream(location));
+    }
+
+    /**
+     * Waits until the stream's format is known, or fails if it is not within
+     * OPEN_TIMEOUT_SECONDS.
+     */
+    private static StreamingSource open(Callable<InputStream> opener) throws IOException, UnsupportedAudioFileException {
+        StreamingSource source = new StreamingSource(opener);
+        try {
+            source.opened.get(OPEN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return source;
+        } catch (TimeoutException e) {
+            source.close();
+            throw new IOException("No audio arrived within " + OPEN_TIMEOUT_SECONDS + " seconds");
+        } catch (InterruptedException e) {
+            source.close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            source.close();
+            Throwable cause = e.getCause();
+            if (cause instanceof UnsupportedAudioFileException) throw (UnsupportedAudioFileException) cause;
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private void decodeLoop() {
+        PcmSource decoded = null;
+        try {
+            input = opener.call();
+            if (closed) input.close();
+            decoded = openDecoder(new BufferedInputStream(input, 64 * 1024));
+
+            format = decoded.getFormat();
+            frameSize = format.getFrameSize();
+            int frameRate = Math.max(1, (int) format.getFrameRate());
+            ring = new byte[Math.max(2, frameRate * CAPACITY_MILLIS / 1000) * frameSize];
+            prebuffer = Math.min(ring.length / 2, frameRate * PREBUFFER_MILLIS / 1000 * frameSize);
+            silenceBytes = Math.max(1, frameRate * SILENCE_MILLIS / 1000) * frameSize;
+            // 8-bit samples are unsigned, with silence in the middle of the range
+            silence = AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding()) ? (byte) 0x80 : 0;
+            opened.complete(format);
+
+            byte[] chunk = new byte[Math.max(1, CHUNK_BYTES / frameSize) * frameSize];
+            while (true) {
+                long start = System.nanoTime();
+                int n = decoded.read(chunk, 0, chunk.length);
+                if (n == -1) break;
+                PlaybackMetrics.recordDecode(System.nanoTime() - start, n);
+                if (!put(chunk, n)) break;
+            }
+        } catch (Exception e) {
+            if (!opened.completeExceptionally(e)) {
+                synchronized (lock) {
+                    if (!closed) error = e;
+                }
+            }
+        } finally {
+            synchronized (lock) {
+                ended = true;
+                lock.notifyAll();
+            }
+            try {
+                if (decoded != null) {
+                    decoded.close();
+                } else if (input != null) {
+                    input.close();
+                }
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Picks a decoder for what the stream starts with.
+     */
+    private static PcmSource openDecoder(BufferedInputStream in) throws IOException, UnsupportedAudioFileException {
+        byte[] head = new byte[AudioContainer.HEADER_BYTES];
+        in.mark(head.length);
+        int length = in.readNBytes(head, 0, head.length);
+        in.reset();
+        if (length == 0) throw new IOException("The stream ended before any audio arrived");
+
+        AudioContainer container = AudioContainer.sniff(head, length);
+        if (container == AudioContainer.MP3) return new Mp3Source(in);
+        if (container == AudioContainer.WAV) return new StreamPcmSource(readWav(in));
+        return new StreamPcmSource(AudioSystem.getAudioInputStream(in));
+    }
+
+    /**
+     * Reads a WAV header up to the start of the samples. Unlike a WavReader it cannot look
+     * ahead or at the file's size, so a data chunk of unset size simply lasts until the
+     * stream ends.
+     */
+    private static AudioInputStream readWav(InputStream in) throws IOException, UnsupportedAudioFileException {
+        ByteBuffer header = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        in.skipNBytes(RIFF_HEADER);
+
+        AudioFormat format = null;
+        while (true) {
+            if (in.readNBytes(header.array(), 0, 8) < 8) throw new UnsupportedAudioFileException("No data chunk in WAV stream");
+            int id = header.getInt(0);
+            long size = header.getInt(4) & 0xffffffffL;
+            long padded = size + (size & 1);
+
+            if (id == FMT) {
+                int length = (int) Math.min(size, header.capacity());
+                if (in.readNBytes(header.array(), 0, length) < 16) throw new UnsupportedAudioFileException("Truncated WAV format chunk");
+                in.skipNBytes(padded - length);
+                int tag = header.getShort(0) & 0xffff;
+                int channels = header.getShort(2) & 0xffff;
+                int sampleRate = header.getInt(4);
+                int blockAlign = header.getShort(12) & 0xffff;
+                int bits = header.getShort(14) & 0xffff;
+                if (tag == FORMAT_EXTENSIBLE && size >= 26) tag = header.getShort(24) & 0xffff;
+
+                AudioFormat.Encoding encoding;
+                if (tag == FORMAT_PCM) {
+                    encoding = bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+                } else if (tag == FORMAT_FLOAT) {
+                    encoding = AudioFormat.Encoding.PCM_FLOAT;
+                } else {
+                    throw new UnsupportedAudioFileException("Unsupported WAV encoding " + tag);
+                }
+                if (channels == 0 || blockAlign != channels * bits / 8) throw new UnsupportedAudioFileException("Malformed WAV format chunk");
+                format = new AudioFormat(encoding, sampleRate, bits, channels, blockAlign, sampleRate, false);
+            } else if (id == DATA) {
+                if (format == null) throw new UnsupportedAudioFileException("No format chunk in WAV stream");
+                // streamed writers leave the size unset
+                long frames = size == 0 || size == 0xffffffffL ? AudioSystem.NOT_SPECIFIED : size / format.getFrameSize();
+                return new AudioInputStream(in, format, frames);
+            } else {
+                in.skipNBytes(padded);
+            }
+        }
+    }
+
+    /**
+     * Copies decoded bytes into the jitter buffer, waiting for room as needed.
+     *
+     * @return false if the source has been closed instead
+     */
+    private boolean put(byte[] data, int length) throws InterruptedException {
+        int offset = 0;
+        synchronized (lock) {
+            while (offset < length) {
+                while (count == ring.length && !closed) {
+                    lock.wait();
+                }
+                if (closed) return false;
+                int tail = (head + count) % ring.length;
+                int n = Math.min(length - offset, Math.min(ring.length - count, ring.length - tail));
+                System.arraycopy(data, offset, ring, tail, n);
+                count += n;
+                offset += n;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return false;
+    }
+
+    @Override
+    public void seek(long frame) throws IOException {
+        if (frame != position) throw new IOException("Cannot seek in a stream");
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        length -= length % frameSize;
+        synchronized (lock) {
+            // the decoder may have copied part of a frame so far
+            int available = count - count % frameSize;
+            if (buffering && (available >= prebuffer || ended)) buffering = false;
+            if (!buffering) {
+                if (available > 0) {
+                    int n = Math.min(length, available);
+                    int first = Math.min(n, ring.length - head);
+                    System.arraycopy(ring, head, buffer, offset, first);
+                    System.arraycopy(ring, 0, buffer, offset + first, n - first);
+                    head = (head + n) % ring.length;
+                    count -= n;
+                    lock.notifyAll();
+                    position += n / frameSize;
+                    return n;
+                }
+                if (ended) {
+                    if (error != null) throw new IOException(error.getMessage(), error);
+                    return -1;
+                }
+                // ran dry: fill in silence until the buffer is primed again
+                buffering = true;
+            }
+        }
+
+        int n = Math.min(length, silenceBytes);
+        Arrays.fill(buffer, offset, offset + n, silence);
+        position += n / frameSize;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        // wakes a decoder waiting on the stream, unless it is one that cannot be interrupted
+        InputStream in = input;
+        if (in != null) in.close();
+    }
+}
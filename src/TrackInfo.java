@@ -0,0 +1,86 @@
+import java.nio.file.Path;
+
+/**
+ * TrackInfo is what the library knows about one audio file without decoding it: its
+ * length, sample rate, channel count and average bitrate, read from the headers, along
+ * with the file size and modification time they were read at.
+ */
+public class TrackInfo {
+    private final Path path;
+    private final long size;
+    private final long modified;
+    private final long frameLength;
+    private final int sampleRate;
+    private final int channels;
+    private final int bitrate;
+
+    public TrackInfo(Path path, long size, long modified, long frameLength, int sampleRate, int channels, int bitrate) {
+        this.path = path;
+        this.size = size;
+        this.modified = modified;
+        this.frameLength = frameLength;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitrate = bitrate;
+    }
+
+    /**
+     * @return an entry for a file whose headers could not be read, so it is not probed
+     *         again until it changes
+     */
+    static TrackInfo unreadable(Path path, long size, long modified) {
+        return new TrackInfo(path, size, modified, 0, 0, 0, 0);
+    }
+
+    /**
+     * @return the same info for the file at path
+     */
+    TrackInfo at(Path path) {
+        return new TrackInfo(path, size, modified, frameLength, sampleRate, channels, bitrate);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the modification time in milliseconds since the epoch
+     */
+    public long getModified() {
+        return modified;
+    }
+
+    /**
+     * @return the length in sample frames
+     */
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return the average bitrate in kbit/s
+     */
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    public long getDurationMillis() {
+        return sampleRate > 0 ? frameLength * 1000 / sampleRate : 0;
+    }
+
+    public boolean isReadable() {
+        return channels > 0;
+    }
+}
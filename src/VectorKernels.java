@@ -0,0 +1,110 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteOrder;
+
+/**
+ * VectorKernels are the SIMD versions of the kernels in ScalarKernels, written with the
+ * incubating Vector API at the widest vector size the CPU prefers. Whatever does not
+ * fill a whole vector at the end of an array is left to the scalar versions.
+ *
+ * Only Kernels refers to this class, and only when jdk.incubator.vector is in the boot
+ * layer (java --add-modules jdk.incubator.vector), so it is never loaded without it.
+ */
+public class VectorKernels {
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    // as many shorts as FLOATS has lanes, so one converts into one float vector
+    private static final VectorSpecies<Short> SHORTS =
+        VectorSpecies.of(short.class, VectorShape.forBitSize(FLOATS.vectorBitSize() / 2));
+    // one int per 16-bit stereo frame
+    private static final VectorSpecies<Integer> INTS =
+        VectorSpecies.of(int.class, VectorShape.forBitSize(FLOATS.vectorBitSize()));
+
+    private VectorKernels() {}
+
+    /**
+     * @return the number of floats one vector holds
+     */
+    public static int lanes() {
+        return FLOATS.length();
+    }
+
+    public static void multiply(float[] a, int aOffset, float[] b, float[] out, int length) {
+        int bound = FLOATS.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector.fromArray(FLOATS, a, aOffset + i)
+                .mul(FloatVector.fromArray(FLOATS, b, i))
+                .intoArray(out, i);
+        }
+        for (; i < length; i++) {
+            out[i] = a[aOffset + i] * b[i];
+        }
+    }
+
+    public static void magnitudes(float[] re, float[] im, float[] out, int length) {
+        int bound = FLOATS.loopBound(length);
+        int k = 0;
+        for (; k < bound; k += FLOATS.length()) {
+            FloatVector r = FloatVector.fromArray(FLOATS, re, k);
+            FloatVector i = FloatVector.fromArray(FLOATS, im, k);
+            // no fused multiply-add, so the result is bit-identical to the scalar loop
+            r.mul(r).add(i.mul(i)).sqrt().intoArray(out, k);
+        }
+        for (; k < length; k++) {
+            out[k] = (float) Math.sqrt(re[k] * re[k] + im[k] * im[k]);
+        }
+    }
+
+    /**
+     * Sums in lane order rather than array order, so the result can differ from the
+     * scalar sum in the last bits.
+     */
+    public static float sum(float[] values, int from, int to) {
+        int bound = from + FLOATS.loopBound(to - from);
+        int j = from;
+        float sum = 0f;
+        if (j < bound) {
+            FloatVector acc = FloatVector.zero(FLOATS);
+            for (; j < bound; j += FLOATS.length()) {
+                acc = acc.add(FloatVector.fromArray(FLOATS, values, j));
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; j < to; j++) {
+            sum += values[j];
+        }
+        return sum;
+    }
+
+    public static void pcm16ToMono(byte[] data, int from, int to, int channels, boolean bigEndian, float[] out) {
+        ByteOrder order = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        int lanes = FLOATS.length();
+        float scale = 1f / 32768f;
+        int f = from;
+
+        if (channels == 1) {
+            for (; f + lanes <= to; f += lanes) {
+                ShortVector s = ShortVector.fromByteArray(SHORTS, data, 2 * f, order);
+                ((FloatVector) s.castShape(FLOATS, 0)).mul(scale).intoArray(out, f);
+            }
+        } else {
+            for (; f + lanes <= to; f += lanes) {
+                // each frame read as one int holds one channel in each half; shifting
+                // sign-extends them, and which half is which does not matter for the sum
+                IntVector frame = IntVector.fromByteArray(INTS, data, 4 * f, order);
+                IntVector high = frame.lanewise(VectorOperators.ASHR, 16);
+                IntVector low = frame.lanewise(VectorOperators.LSHL, 16).lanewise(VectorOperators.ASHR, 16);
+                FloatVector a = (FloatVector) high.convert(VectorOperators.I2F, 0);
+                FloatVector b = (FloatVector) low.convert(VectorOperators.I2F, 0);
+                a.mul(scale).add(b.mul(scale)).mul(0.5f).intoArray(out, f);
+            }
+        }
+
+        ScalarKernels.pcm16ToMono(data, f, to, channels, bigEndian, out);
+    }
+}
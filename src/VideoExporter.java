@@ -0,0 +1,190 @@
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * VideoExporter renders the visualizer for a whole track, without a display, as a PNG
+ * sequence or as a raw RGB24 stream for a video encoder.
+ *
+ * The bands come from the track's Spectrogram, analyzed first if it is not cached, and
+ * are smoothed frame by frame exactly as the live panel smooths them. Drawing is done by
+ * the panel's BarRenderer on a pool of workers, each with its own image. At most two
+ * frames per worker are in flight, which bounds memory, and frames are written in order.
+ *
+ *     java -Djava.awt.headless=true VideoExporter <input> <frames-dir|out.rgb|-> [width height fps]
+ *
+ * An output ending in .rgb, or - for standard output, selects the raw stream, e.g.
+ *
+ *     java VideoExporter song.mp3 - 1920 1080 60 | ffmpeg -f rawvideo -pix_fmt rgb24 -s 1920x1080 -r 60 -i - ...
+ */
+public class VideoExporter {
+    private static final int BANDS = SpectrumAnalyzer.DEFAULT_BANDS;
+    private static final float SMOOTHING_FACTOR = 0.5f;
+
+    private final int width;
+    private final int height;
+    private final int fps;
+    private final int workers;
+
+    private final ThreadLocal<Canvas> canvases;
+
+    public VideoExporter(int width, int height, int fps, int workers) {
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.workers = workers;
+        this.canvases = ThreadLocal.withInitial(() -> new Canvas(width, height));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 && args.length != 5) {
+            System.err.println("Usage: java VideoExporter <input.mp3|input.wav> <frames-dir|out.rgb|-> [width height fps]");
+            System.exit(2);
+        }
+        int width = args.length == 5 ? Integer.parseInt(args[2]) : 1280;
+        int height = args.length == 5 ? Integer.parseInt(args[3]) : 720;
+        int fps = args.length == 5 ? Integer.parseInt(args[4]) : 60;
+        VideoExporter exporter = new VideoExporter(width, height, fps, Runtime.getRuntime().availableProcessors());
+
+        Path input = Path.of(args[0]);
+        String output = args[1];
+        long start = System.nanoTime();
+        long frames;
+        if (output.equals("-")) {
+            frames = exporter.exportRaw(input, System.out);
+        } else if (output.endsWith(".rgb")) {
+            try (OutputStream out = Files.newOutputStream(Path.of(output))) {
+                frames = exporter.exportRaw(input, out);
+            }
+        } else {
+            frames = exporter.exportPng(input, Path.of(output));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double trackSeconds = frames / (double) fps;
+
+        // stdout may be the video stream
+        System.err.printf("%d frames at %dx%d, %.1f s of video in %.2f s (%.1fx real time)%n",
+            frames, width, height, trackSeconds, seconds, trackSeconds / seconds);
+    }
+
+    /**
+     * Writes frame_000000.png, frame_000001.png, ... into directory.
+     *
+     * @return the number of frames written
+     */
+    public long exportPng(Path input, Path directory) throws Exception {
+        Files.createDirectories(directory);
+        return export(input, (index, snapshot) -> {
+            BufferedImage image = canvases.get().draw(snapshot);
+            ImageIO.write(image, "png", directory.resolve(String.format("frame_%06d.png", index)).toFile());
+            return null;
+        }, frame -> {});
+    }
+
+    /**
+     * Writes every frame as width * height packed RGB24 pixels, top row first.
+     *
+     * @return the number of frames written
+     */
+    public long exportRaw(Path input, OutputStream out) throws Exception {
+        OutputStream buffered = new BufferedOutputStream(out, 1 << 20);
+        long frames = export(input, (index, snapshot) -> canvases.get().rgb(snapshot), buffered::write);
+        buffered.flush();
+        return frames;
+    }
+
+    /**
+     * Renders every frame with render on the workers and hands the results to write in
+     * frame order.
+     */
+    private <T> long export(Path input, FrameRenderer<T> render, FrameWriter<T> write) throws Exception {
+        Spectrogram spectrogram = SpectrogramCache.get(input).get();
+        if (spectrogram == null) throw new IOException("Could not analyze " + input);
+        BandFile header = spectrogram.getHeader();
+        long frameCount = header.frameCount * header.hop * fps / header.sampleRate;
+
+        float[] magnitudes = new float[BANDS];
+        float[] bandMagnitudes = new float[BANDS];
+        Deque<Future<T>> inFlight = new ArrayDeque<>();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            for (long t = 0; t < frameCount; t++) {
+                // the sample that is audible when frame t is shown
+                long sampleFrame = t * header.sampleRate / fps;
+                spectrogram.read(sampleFrame, bandMagnitudes);
+                for (int i = 0; i < BANDS; i++) {
+                    // smooth magnitude
+                    magnitudes[i] = magnitudes[i] * SMOOTHING_FACTOR + bandMagnitudes[i] * (1f - SMOOTHING_FACTOR);
+                }
+
+                BandSnapshot snapshot = new BandSnapshot(magnitudes);
+                long index = t;
+                inFlight.addLast(pool.submit(() -> render.render(index, snapshot)));
+                if (inFlight.size() >= workers * 2) {
+                    write.write(inFlight.removeFirst().get());
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                write.write(inFlight.removeFirst().get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return frameCount;
+    }
+
+    private interface FrameRenderer<T> {
+        T render(long index, BandSnapshot snapshot) throws Exception;
+    }
+
+    private interface FrameWriter<T> {
+        void write(T frame) throws IOException;
+    }
+
+    /**
+     * One worker's image and renderer, reused for every frame it draws.
+     */
+    private static final class Canvas {
+        final BufferedImage image;
+        final BarRenderer renderer = new BarRenderer(BANDS);
+
+        Canvas(int width, int height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+
+        BufferedImage draw(BandSnapshot snapshot) {
+            Graphics2D g = image.createGraphics();
+            try {
+                renderer.paintAll(g, snapshot, image.getWidth(), image.getHeight());
+            } finally {
+                g.dispose();
+            }
+            return image;
+        }
+
+        byte[] rgb(BandSnapshot snapshot) {
+            draw(snapshot);
+            // TYPE_INT_RGB rows are packed 0xRRGGBB ints, top row first
+            int[] packed = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            byte[] pixels = new byte[packed.length * 3];
+            for (int i = 0, p = 0; i < packed.length; i++) {
+                int rgb = packed[i];
+                pixels[p++] = (byte) (rgb >> 16);
+                pixels[p++] = (byte) (rgb >> 8);
+                pixels[p++] = (byte) rgb;
+            }
+            return pixels;
+        }
+    }
+}
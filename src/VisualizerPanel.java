@@ -1,140 +1,134 @@
 import javax.swing.JPanel;
-import java.awt.Color;
+import javax.swing.SwingUtilities;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.util.LinkedList;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * VisualizerPanel is a Swing component that displays a real-time visualization of audio
- * retrieved from PCMBuffer
- * 
- * Periodically reads the latest PCM sample buffer, performs an in-place FFT,
- * calculates magnitude bands, and draws vertical bars.
+ * as vertical bars.
+ *
+ * It is an AnalysisView that subscribes to the BANDS of an AnalysisBus, which picks the
+ * window the output line's own clock says is audible, so the visuals line up with what
+ * is audible on any output device. Each frame the bands are smoothed, and a BandSnapshot
+ * is published only when a band moved. The event dispatch thread draws each snapshot
+ * into a cached image with a BarRenderer, which repaints only the bars that changed
+ * height, and then repaints just that region of the panel. A PaintObserver is shown
+ * every frame drawn, so the panel can be watched without a screen.
  */
-public class VisualizerPanel extends JPanel {
-    private static final int FFT_SIZE = 1024;
-    private static final int BANDS = 64;
-    private static final int FRAME_INTERVAL_MS = 16; // ~60 fps
-    private static final int VISUAL_DELAY_MS = 500;
+public class VisualizerPanel extends JPanel implements AnalysisView {
+    private static final int BANDS = AnalysisBus.BANDS;
     private static final float SMOOTHING_FACTOR = 0.5f;
-    private static final float MIN_CLAMP = 0.02f;
-    private static final float MAX_CLAMP = 1.0f;
+    // below a pixel even at 4K, so smaller moves are not worth a frame
+    private static final float MIN_CHANGE = 1f / 4096;
 
-    private float[] magnitudes = new float[BANDS];
-    private final LinkedList<float[]> fftDelayQueue = new LinkedList<>();
-
-    public VisualizerPanel() {
-        Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                float[] samples = PCMBuffer.getSamples();
-                if (samples.length >= FFT_SIZE) {
-                    float[] window = new float[FFT_SIZE];
-                    System.arraycopy(samples, 0, window, 0, FFT_SIZE);
-
-                    float[] real = new float[FFT_SIZE];
-                    float[] imag = new float[FFT_SIZE];
-                    System.arraycopy(window, 0, real, 0, FFT_SIZE);
+    /**
+     * PaintObserver is told about every frame the panel draws.
+     */
+    public interface PaintObserver {
+        /**
+         * Called on the event dispatch thread once image holds the frame drawn from snapshot.
+         */
+        void painted(BufferedImage image, BandSnapshot snapshot);
+    }
 
-                    fft(real, imag);
+    // analysis thread state
+    private final float[] magnitudes = new float[BANDS];
+    private final float[] published = new float[BANDS];
 
-                    float[] bandMagnitudes = new float[BANDS];
-                    for (int i = 0; i < BANDS; i++) {
-                        float sum = 0f;
-                        int start = i * (FFT_SIZE / 2) / BANDS;
-                        int end = (i + 1) * (FFT_SIZE / 2) / BANDS;
-                        for (int j = start; j < end; j++) {
-                            float mag = (float) Math.sqrt(real[j] * real[j] + imag[j] * imag[j]);
-                            sum += mag;
-                        }
-                        float avg = sum / (end - start);
+    // handoff to the event dispatch thread
+    private final AtomicReference<BandSnapshot> latest = new AtomicReference<>(new BandSnapshot(new float[BANDS]));
+    private final AtomicBoolean applyScheduled = new AtomicBoolean();
 
-                        // clamp magnitude
-                        avg = Math.max(MIN_CLAMP, Math.min(MAX_CLAMP, avg));
-                        bandMagnitudes[i] = avg;
-                    }
+    // event dispatch thread state
+    private final BarRenderer renderer = new BarRenderer(BANDS);
+    private BufferedImage image;
+    private volatile PaintObserver paintObserver;
 
-                    // add to delay queue
-                    fftDelayQueue.addLast(bandMagnitudes);
-                    int maxQueueSize = VISUAL_DELAY_MS / FRAME_INTERVAL_MS;
-                    if (fftDelayQueue.size() > maxQueueSize) {
-                        float[] delayed = fftDelayQueue.removeFirst();
-                        for (int i = 0; i < BANDS; i++) {
-                            // smooth magnitude
-                            magnitudes[i] = magnitudes[i] * SMOOTHING_FACTOR + delayed[i] * (1f - SMOOTHING_FACTOR);
-                        }
-                    }
-                }
+    public VisualizerPanel(AnalysisBus bus) {
+        bus.subscribe(this, EnumSet.of(AnalysisProduct.BANDS));
+    }
 
-                repaint();
-            }
-        }, 0, FRAME_INTERVAL_MS);
+    public void setPaintObserver(PaintObserver observer) {
+        paintObserver = observer;
     }
 
     @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        Graphics2D g2 = (Graphics2D) g;
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-        int width = getWidth();
-        int height = getHeight() - 10;
-        int barWidth = width / BANDS;
-
-        g2.setColor(Color.BLACK);
-        g2.fillRect(0, 0, width, height);
+    public void frameAnalyzed(AnalysisFrame frame) {
+        if (!frame.has(AnalysisProduct.BANDS)) return;
 
-        g2.setColor(Color.GREEN);
+        boolean changed = false;
         for (int i = 0; i < BANDS; i++) {
-            int barHeight = (int)(magnitudes[i] * height);
-            g2.fillRect(i * barWidth, height - barHeight, barWidth - 2, barHeight);
+            // smooth magnitude
+            magnitudes[i] = magnitudes[i] * SMOOTHING_FACTOR + frame.getBand(i) * (1f - SMOOTHING_FACTOR);
+            if (Math.abs(magnitudes[i] - published[i]) >= MIN_CHANGE) changed = true;
+        }
+        if (!changed) return;
+        System.arraycopy(magnitudes, 0, published, 0, BANDS);
+
+        latest.set(new BandSnapshot(magnitudes, frame.getNanoTime()));
+        // one pending apply at a time; it always draws the newest snapshot
+        if (applyScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::applyLatest);
         }
     }
 
     /**
-     * In-place Cooley-Tukey Radix-2 FFT (Fast Fourier Transform).
+     * Draws the newest snapshot into the cached image and repaints what changed. Runs on
+     * the event dispatch thread.
      */
-    private void fft(float[] real, float[] imag) {
-        int n = real.length;
+    private void applyLatest() {
+        applyScheduled.set(false);
+        if (!ensureImage()) return;
+        long start = System.nanoTime();
+        BandSnapshot snapshot = latest.get();
+        Graphics2D g = image.createGraphics();
+        try {
+            Rectangle dirty = renderer.paintChanged(g, snapshot, image.getWidth(), image.getHeight());
+            if (dirty != null) repaint(dirty);
+        } finally {
+            g.dispose();
+        }
+        long end = System.nanoTime();
+        PlaybackMetrics.recordPaint(end - start, end - snapshot.getNanoTime());
+        PaintObserver observer = paintObserver;
+        if (observer != null) observer.painted(image, snapshot);
+    }
 
-        for (int j = 1, i = 0; j < n - 1; j++) {
-            int bit = n >> 1;
-            for (; i >= bit; bit >>= 1) i -= bit;
-            i += bit;
-            if (j < i) {
-                float temp = real[j];
-                real[j] = real[i];
-                real[i] = temp;
-                temp = imag[j];
-                imag[j] = imag[i];
-                imag[i] = temp;
-            }
+    /**
+     * Recreates the cached image, drawn in full, when the panel has been resized.
+     *
+     * @return false if the panel has no area to draw into
+     */
+    private boolean ensureImage() {
+        int width = getWidth();
+        int height = getHeight() - 10;
+        if (width <= 0 || height <= 0) return false;
+        if (image != null && image.getWidth() == width && image.getHeight() == height) return true;
+
+        GraphicsConfiguration config = getGraphicsConfiguration();
+        image = config != null
+            ? config.createCompatibleImage(width, height)
+            : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            renderer.paintAll(g, latest.get(), width, height);
+        } finally {
+            g.dispose();
         }
+        return true;
+    }
 
-        for (int len = 2; len <= n; len <<= 1) {
-            float angle = (float)(-2 * Math.PI / len);
-            float wlenR = (float)Math.cos(angle);
-            float wlenI = (float)Math.sin(angle);
-            for (int i = 0; i < n; i += len) {
-                float wR = 1, wI = 0;
-                for (int j = 0; j < len / 2; j++) {
-                    int u = i + j;
-                    int v = i + j + len / 2;
-                    float tR = real[v] * wR - imag[v] * wI;
-                    float tI = real[v] * wI + imag[v] * wR;
-                    real[v] = real[u] - tR;
-                    imag[v] = imag[u] - tI;
-                    real[u] += tR;
-                    imag[u] += tI;
-                    float nextWR = wR * wlenR - wI * wlenI;
-                    wI = wR * wlenI + wI * wlenR;
-                    wR = nextWR;
-                }
-            }
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if (ensureImage()) {
+            g.drawImage(image, 0, 0, null);
         }
     }
 }
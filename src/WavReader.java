@@ -0,0 +1,159 @@
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * WavReader reads plain integer PCM WAV files, 8 to 32 bits, directly through a FileChannel.
+ *
+ * The RIFF header is parsed once, then every read is a positional read at
+ * dataStart + frame * frameSize, so seeking is a frame-index assignment: it cannot land
+ * mid-frame and never reopens or re-skips the file, however large it is.
+ */
+public class WavReader implements PcmSource {
+    private static final int RIFF = 0x46464952; // "RIFF" read little-endian
+    private static final int WAVE = 0x45564157;
+    private static final int FMT = 0x20746d66;
+    private static final int DATA = 0x61746164;
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_EXTENSIBLE = 0xfffe;
+
+    private final FileChannel channel;
+    private final AudioFormat format;
+    private final int frameSize;
+    private final long dataStart;
+    private final long frameLength;
+    private long position;
+
+    // wrapper for the caller's buffer, rebuilt only when the caller switches arrays
+    private ByteBuffer wrapped;
+
+    private WavReader(FileChannel channel, AudioFormat format, long dataStart, long dataLength) {
+        this.channel = channel;
+        this.format = format;
+        this.frameSize = format.getFrameSize();
+        this.dataStart = dataStart;
+        this.frameLength = dataLength / frameSize;
+    }
+
+    /**
+     * Opens file for direct reading.
+     *
+     * @return the reader, or null if the file is not a plain integer PCM WAV and
+     *         has to go through a conversion stream instead
+     */
+    public static WavReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            WavReader reader = parse(channel);
+            if (reader == null) channel.close();
+            return reader;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads length and format from the header only.
+     *
+     * @return the track's info, or null if the file is not a plain integer PCM WAV
+     */
+    static TrackInfo probe(Path file, long size, long modified) throws IOException {
+        try (WavReader reader = open(file)) {
+            if (reader == null) return null;
+            AudioFormat format = reader.format;
+            int bitrate = (int) (format.getFrameRate() * reader.frameSize * 8 / 1000);
+            return new TrackInfo(file, size, modified, reader.frameLength, (int) format.getSampleRate(),
+                format.getChannels(), bitrate);
+        }
+    }
+
+    private static WavReader parse(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        if (readAt(channel, header, 0, 12) < 12 || header.getInt(0) != RIFF || header.getInt(8) != WAVE) return null;
+
+        AudioFormat format = null;
+        long pos = 12;
+        long fileSize = channel.size();
+        while (pos + 8 <= fileSize) {
+            readAt(channel, header, pos, 8);
+            int id = header.getInt(0);
+            long size = header.getInt(4) & 0xffffffffL;
+
+            if (id == FMT) {
+                if (readAt(channel, header, pos + 8, (int) Math.min(size, 40)) < 16) return null;
+                int tag = header.getShort(0) & 0xffff;
+                int channels = header.getShort(2) & 0xffff;
+                int sampleRate = header.getInt(4);
+                int blockAlign = header.getShort(12) & 0xffff;
+                int bits = header.getShort(14) & 0xffff;
+                if (tag == FORMAT_EXTENSIBLE && size >= 26) tag = header.getShort(24) & 0xffff;
+
+                // float has to be converted for the output line, so it takes the fallback path
+                if (tag != FORMAT_PCM || bits < 8 || bits > 32 || bits % 8 != 0 || blockAlign != channels * bits / 8) return null;
+                // 8-bit WAV samples are unsigned, wider ones signed
+                AudioFormat.Encoding encoding = bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+                format = new AudioFormat(encoding, sampleRate, bits, channels, blockAlign, sampleRate, false);
+            } else if (id == DATA) {
+                if (format == null) return null;
+                long dataStart = pos + 8;
+                // streamed writers leave the size unset; trust the file length instead
+                long dataLength = size == 0 || size == 0xffffffffL ? fileSize - dataStart : Math.min(size, fileSize - dataStart);
+                return new WavReader(channel, format, dataStart, dataLength);
+            }
+            pos += 8 + size + (size & 1);
+        }
+        return null;
+    }
+
+    private static int readAt(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) break;
+        }
+        return buffer.position();
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    @Override
+    public void seek(long frame) {
+        position = Math.max(0, Math.min(frame, frameLength));
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        long remaining = (frameLength - position) * frameSize;
+        int want = (int) Math.min(length - length % frameSize, remaining);
+        if (want <= 0) return -1;
+
+        if (wrapped == null || wrapped.array() != buffer) wrapped = ByteBuffer.wrap(buffer);
+        wrapped.clear().position(offset).limit(offset + want);
+        long filePosition = dataStart + position * frameSize;
+        while (wrapped.hasRemaining()) {
+            if (channel.read(wrapped, filePosition + wrapped.position() - offset) < 0) break;
+        }
+        int n = wrapped.position() - offset;
+        n -= n % frameSize;
+        if (n <= 0) return -1;
+        position += n / frameSize;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Waveform is a min/max/RMS peak pyramid of a track's mono samples, for drawing the
+ * track's shape at any zoom level.
+ *
+ * Level 0 summarizes buckets of 256 samples and every further level summarizes FANOUT
+ * buckets of the level below. Drawing a column picks the coarsest level whose buckets
+ * are no wider than the column and combines the few buckets it covers, so a column
+ * costs the same whether the track lasts three minutes or three hours, and no raw sample
+ * is ever touched at draw time. Values are stored as 16-bit fractions of full scale.
+ *
+ * A Waveform that is still being built by WaveformCache can already be drawn: buckets
+ * that are not filled in yet read as silence, getRevision() changes whenever a chunk of
+ * buckets is finished, and isComplete() turns true at the end. If the build fails
+ * instead, getFailure() says why, and the waveform stays as far as it got.
+ */
+public class Waveform {
+    public static final int BASE_BUCKET = 256;
+    public static final int FANOUT = 16;
+    public static final int LEVELS = 4;
+    static final int MAGIC = 0x5045414b; // "PEAK"
+    static final int VERSION = 1;
+
+    private final float sampleRate;
+    private volatile Level[] levels;
+    private volatile long frameLength;
+    private volatile boolean complete;
+    private volatile Throwable failure;
+    private final AtomicInteger revision = new AtomicInteger();
+
+    Waveform(float sampleRate, long frameLength) {
+        this.sampleRate = sampleRate;
+        this.frameLength = frameLength;
+        Level[] levels = new Level[LEVELS];
+        for (int i = 0; i < LEVELS; i++) {
+            int bucketSize = bucketSize(i);
+            levels[i] = new Level(bucketSize, (int) ((frameLength + bucketSize - 1) / bucketSize));
+        }
+        this.levels = levels;
+    }
+
+    private Waveform(float sampleRate, long frameLength, Level[] levels) {
+        this.sampleRate = sampleRate;
+        this.frameLength = frameLength;
+        this.levels = levels;
+        this.complete = true;
+    }
+
+    /**
+     * @return the number of samples one bucket of the given level summarizes
+     */
+    public static int bucketSize(int level) {
+        int size = BASE_BUCKET;
+        for (int i = 0; i < level; i++) {
+            size *= FANOUT;
+        }
+        return size;
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return the length of the track in frames; an estimate until the build is complete
+     */
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return why the build stopped before the waveform was complete, or null
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return a number that changes whenever more of the waveform has been filled in
+     */
+    public int getRevision() {
+        return revision.get();
+    }
+
+    /**
+     * Summarizes frames [from, to) of the track in columns equal slices, writing the
+     * lowest and highest sample and the RMS level of each into min, max and rms.
+     */
+    public void render(long from, long to, int columns, float[] min, float[] max, float[] rms) {
+        Level[] levels = this.levels;
+        double perColumn = (double) (to - from) / columns;
+        int chosen = 0;
+        while (chosen + 1 < levels.length && levels[chosen + 1].ready && levels[chosen + 1].bucketSize <= perColumn) {
+            chosen++;
+        }
+        Level level = levels[chosen];
+
+        for (int c = 0; c < columns; c++) {
+            long start = from + (long) (c * perColumn);
+            long end = Math.max(start + 1, from + (long) ((c + 1) * perColumn));
+            int first = (int) Math.min(level.count, start / level.bucketSize);
+            int last = (int) Math.min(level.count, (end + level.bucketSize - 1) / level.bucketSize);
+            float lo = 0f;
+            float hi = 0f;
+            double squares = 0;
+            for (int b = first; b < last; b++) {
+                lo = Math.min(lo, level.min[b] / 32767f);
+                hi = Math.max(hi, level.max[b] / 32767f);
+                float r = level.rms[b] / 32767f;
+                squares += r * r;
+            }
+            min[c] = lo;
+            max[c] = hi;
+            rms[c] = last > first ? (float) Math.sqrt(squares / (last - first)) : 0f;
+        }
+    }
+
+    // builder side
+
+    /**
+     * @return the number of frames there is room for
+     */
+    long capacity() {
+        return (long) levels[0].count * BASE_BUCKET;
+    }
+
+    /**
+     * Makes room for at least frames frames; only while no chunk is being filled in.
+     */
+    void grow(long frames) {
+        Level[] grown = levels.clone();
+        for (int i = 0; i < grown.length; i++) {
+            int bucketSize = grown[i].bucketSize;
+            int count = (int) ((frames + bucketSize - 1) / bucketSize);
+            if (count > grown[i].count) grown[i] = grown[i].resize(count);
+        }
+        levels = grown;
+    }
+
+    /**
+     * Corrects the estimated length once the decoder has gone past it.
+     */
+    void extend(long frames) {
+        if (frames > frameLength) frameLength = frames;
+    }
+
+    /**
+     * Fills in every level markReady has marked for samples[0..length-1], the track from
+     * firstFrame on. firstFrame must be a multiple of the chunk length given there.
+     */
+    void fill(float[] samples, int length, long firstFrame) {
+        Level[] levels = this.levels;
+        Level base = levels[0];
+        int firstBucket = (int) (firstFrame / BASE_BUCKET);
+        for (int b = 0; b * BASE_BUCKET < length && firstBucket + b < base.count; b++) {
+            int from = b * BASE_BUCKET;
+            int to = Math.min(length, from + BASE_BUCKET);
+            float lo = 0f;
+            float hi = 0f;
+            double squares = 0;
+            for (int i = from; i < to; i++) {
+                float sample = samples[i];
+                lo = Math.min(lo, sample);
+                hi = Math.max(hi, sample);
+                squares += sample * sample;
+            }
+            base.set(firstBucket + b, lo, hi, (float) Math.sqrt(squares / (to - from)));
+        }
+
+        long lastFrame = firstFrame + length;
+        for (int i = 1; i < levels.length && levels[i].ready; i++) {
+            // only the track's last chunk is short, and its last buckets end with the track
+            int bucketSize = levels[i].bucketSize;
+            int from = (int) (firstFrame / bucketSize);
+            int to = (int) Math.min(levels[i].count, (lastFrame + bucketSize - 1) / bucketSize);
+            levels[i].aggregate(levels[i - 1], from, to);
+        }
+        revision.incrementAndGet();
+    }
+
+    /**
+     * Fills in the levels whose buckets span several chunks, trims the waveform to the
+     * frames actually decoded and marks it complete.
+     */
+    void finish(long frames) {
+        Level[] levels = this.levels.clone();
+        for (int i = 0; i < levels.length; i++) {
+            int count = (int) ((frames + levels[i].bucketSize - 1) / levels[i].bucketSize);
+            levels[i] = levels[i].resize(count);
+            if (i > 0 && !levels[i].ready) levels[i].aggregate(levels[i - 1], 0, count);
+            levels[i].ready = true;
+        }
+        this.levels = levels;
+        frameLength = frames;
+        complete = true;
+        revision.incrementAndGet();
+    }
+
+    /**
+     * Records that the build failed, so the waveform will never be complete.
+     */
+    void fail(Throwable cause) {
+        failure = cause;
+        revision.incrementAndGet();
+    }
+
+    /**
+     * Marks the levels whose buckets evenly divide a chunk of the given length as filled
+     * in chunk by chunk, so render may use them before the build completes.
+     */
+    void markReady(int chunkLength) {
+        for (Level level : levels) {
+            if (level.bucketSize <= chunkLength) level.ready = true;
+        }
+    }
+
+    public void write(Path file, Path source) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            SidecarCache.writeHeader(out, source, MAGIC, VERSION);
+            out.writeFloat(sampleRate);
+            out.writeLong(frameLength);
+            out.writeInt(levels.length);
+            for (Level level : levels) {
+                out.writeInt(level.bucketSize);
+                out.writeInt(level.count);
+                byte[] bytes = new byte[level.count * 2];
+                for (short[] values : new short[][] {level.min, level.max, level.rms}) {
+                    ByteBuffer.wrap(bytes).asShortBuffer().put(values, 0, level.count);
+                    out.write(bytes);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the waveform stored in file, or null if it does not describe source as it is now
+     */
+    public static Waveform read(Path file, Path source) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (!SidecarCache.readHeader(in, source, MAGIC, VERSION)) return null;
+            float sampleRate = in.readFloat();
+            long frameLength = in.readLong();
+            int count = in.readInt();
+            if (count != LEVELS) return null;
+            Level[] levels = new Level[count];
+            for (int i = 0; i < count; i++) {
+                int bucketSize = in.readInt();
+                int buckets = in.readInt();
+                if (bucketSize != bucketSize(i) || buckets < 0) return null;
+                Level level = new Level(bucketSize, buckets);
+                byte[] bytes = new byte[buckets * 2];
+                for (short[] values : new short[][] {level.min, level.max, level.rms}) {
+                    in.readFully(bytes);
+                    ByteBuffer.wrap(bytes).asShortBuffer().get(values);
+                }
+                level.ready = true;
+                levels[i] = level;
+            }
+            return new Waveform(sampleRate, frameLength, levels);
+        }
+    }
+
+    /**
+     * One level of the pyramid: the lowest and highest sample and the RMS level of each
+     * bucket, as fractions of full scale times 32767.
+     */
+    static final class Level {
+        final int bucketSize;
+        final int count;
+        final short[] min;
+        final short[] max;
+        final short[] rms;
+        volatile boolean ready;
+
+        Level(int bucketSize, int count) {
+            this(bucketSize, count, new short[count], new short[count], new short[count]);
+        }
+
+        private Level(int bucketSize, int count, short[] min, short[] max, short[] rms) {
+            this.bucketSize = bucketSize;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.rms = rms;
+        }
+
+        Level resize(int count) {
+            Level resized = new Level(bucketSize, count,
+                Arrays.copyOf(min, count), Arrays.copyOf(max, count), Arrays.copyOf(rms, count));
+            resized.ready = ready;
+            return resized;
+        }
+
+        void set(int bucket, float lo, float hi, float level) {
+            min[bucket] = quantize(lo);
+            max[bucket] = quantize(hi);
+            rms[bucket] = quantize(level);
+        }
+
+        /**
+         * Fills in buckets [from, to) from the FANOUT buckets below each of them.
+         */
+        void aggregate(Level below, int from, int to) {
+            for (int b = from; b < to; b++) {
+                int first = b * FANOUT;
+                int last = Math.min(below.count, first + FANOUT);
+                short lo = 0;
+                short hi = 0;
+                double squares = 0;
+                for (int c = first; c < last; c++) {
+                    lo = (short) Math.min(lo, below.min[c]);
+                    hi = (short) Math.max(hi, below.max[c]);
+                    squares += (double) below.rms[c] * below.rms[c];
+                }
+                min[b] = lo;
+                max[b] = hi;
+                rms[b] = last > first ? (short) Math.round(Math.sqrt(squares / (last - first))) : 0;
+            }
+        }
+
+        private static short quantize(float value) {
+            return (short) Math.round(Math.max(-1f, Math.min(1f, value)) * 32767f);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * WaveformCache keeps the Waveform of every track that has been opened, so that drawing
+ * a track's shape never needs its samples again.
+ *
+ * Waveforms are stored in the SidecarCache directory, validated by the source file's
+ * size and modification time like every other entry. A missed track is decoded once in
+ * the background, sequentially, into chunks of CHUNK_FRAMES samples, and each chunk is
+ * summarized on a fork-join pool while the decoder carries on. The Waveform is handed
+ * out as soon as the track's length is known and fills in as the chunks finish, so a
+ * view can draw it progressively; once complete it is written out atomically.
+ */
+public class WaveformCache {
+    private static final String KIND = "peaks";
+    // four of the largest buckets that are filled in chunk by chunk
+    static final int CHUNK_FRAMES = 4 * Waveform.bucketSize(2);
+
+    private static final Map<Path, CompletableFuture<Waveform>> pending = new ConcurrentHashMap<>();
+    private static final ExecutorService decoder = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "waveform-cache");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private WaveformCache() {}
+
+    /**
+     * Returns the waveform of a track. The future completes with the cached waveform when
+     * there is one, read in the background as well since a long recording's entry runs to
+     * megabytes, and otherwise once the background build has started; the waveform then
+     * fills in until isComplete().
+     */
+    public static CompletableFuture<Waveform> get(Path source) {
+        Path key = source.toAbsolutePath().normalize();
+        return pending.computeIfAbsent(key, k -> {
+            CompletableFuture<Waveform> started = new CompletableFuture<>();
+            decoder.execute(() -> {
+                try {
+                    Waveform cached = readCached(k);
+                    if (cached != null) {
+                        started.complete(cached);
+                    } else {
+                        build(k, started);
+                    }
+                } catch (Exception e) {
+                    // a waveform already handed out carries the failure itself
+                    if (!started.completeExceptionally(e)) started.join().fail(e);
+                } finally {
+                    pending.remove(k);
+                }
+            });
+            return started;
+        });
+    }
+
+    /**
+     * @return the cached waveform of source, or null if it has none that is up to date
+     */
+    private static Waveform readCached(Path source) {
+        try {
+            Path entry = SidecarCache.entry(source, KIND);
+            if (Files.exists(entry)) return Waveform.read(entry, source);
+        } catch (IOException ignored) {
+            // an unreadable entry is rebuilt like a missing one
+        }
+        return null;
+    }
+
+    private static void build(Path source, CompletableFuture<Waveform> started) throws Exception {
+        // a spare core is plenty: this only has to outrun the decoder
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        try (PcmSource pcm = PcmSource.open(source.toString())) {
+            AudioFormat format = pcm.getFormat();
+            long estimate = pcm.getFrameLength();
+            Waveform waveform = new Waveform(format.getSampleRate(),
+                estimate == AudioSystem.NOT_SPECIFIED ? CHUNK_FRAMES : Math.max(1, estimate));
+            waveform.markReady(CHUNK_FRAMES);
+            started.complete(waveform);
+
+            // two buffers per worker keeps every core busy while the decoder fills the next one
+            int bufferCount = pool.getParallelism() * 2;
+            BlockingQueue<float[]> buffers = new ArrayBlockingQueue<>(bufferCount);
+            for (int i = 0; i < bufferCount; i++) {
+                buffers.add(new float[CHUNK_FRAMES]);
+            }
+
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            byte[] bytes = new byte[Math.max(1, 8192 / format.getFrameSize()) * format.getFrameSize()];
+            float[] decoded = new float[bytes.length / format.getFrameSize()];
+            float[] chunk = buffers.take();
+            int fill = 0;
+            long chunkStart = 0;
+
+            int bytesRead;
+            while ((bytesRead = pcm.read(bytes, 0, bytes.length)) != -1) {
+                int count = PcmConverter.toMono(bytes, bytesRead, format, decoded);
+                int offset = 0;
+                while (offset < count) {
+                    int n = Math.min(count - offset, CHUNK_FRAMES - fill);
+                    System.arraycopy(decoded, offset, chunk, fill, n);
+                    fill += n;
+                    offset += n;
+
+                    if (fill == CHUNK_FRAMES) {
+                        submit(pool, tasks, waveform, chunk, fill, chunkStart, buffers);
+                        chunk = buffers.take();
+                        fill = 0;
+                        chunkStart += CHUNK_FRAMES;
+                    }
+                }
+            }
+            if (fill > 0) submit(pool, tasks, waveform, chunk, fill, chunkStart, buffers);
+            joinAll(tasks);
+            waveform.finish(chunkStart + fill);
+
+            Path entry = SidecarCache.entry(source, KIND);
+            Files.createDirectories(entry.getParent());
+            Path partial = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), ".tmp");
+            try {
+                waveform.write(partial, source);
+                Files.move(partial, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(partial);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void submit(ForkJoinPool pool, List<ForkJoinTask<?>> tasks, Waveform waveform,
+                               float[] chunk, int length, long firstFrame, BlockingQueue<float[]> buffers) {
+        long end = firstFrame + length;
+        if (end > waveform.capacity()) {
+            // the length was an estimate that fell short: let the chunks in flight
+            // finish, then make room, in one go for anything up to twice as long
+            joinAll(tasks);
+            waveform.grow(Math.max(end, 2 * waveform.capacity()));
+        }
+        waveform.extend(end);
+        tasks.add(pool.submit(() -> {
+            try {
+                waveform.fill(chunk, length, firstFrame);
+            } finally {
+                buffers.add(chunk);
+            }
+        }));
+    }
+
+    private static void joinAll(List<ForkJoinTask<?>> tasks) {
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        tasks.clear();
+    }
+}
@@ -0,0 +1,234 @@
+import javax.swing.JComponent;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+
+/**
+ * WaveformSeekBar is a seek bar that shows the shape of the current track.
+ *
+ * The track's Waveform is drawn one column per pixel into a cached image, which is
+ * redrawn only when the bar is resized, zoomed or scrolled, or when more of a waveform
+ * that is still being built has been filled in. Every repaint in between just copies
+ * the image and draws the played part and the playhead over it.
+ *
+ * Clicking or dragging seeks, with the position resolved to the pixel rather than to a
+ * percent of the track. The mouse wheel zooms in and out around the pointer, down to
+ * about one level-0 bucket per pixel, and a zoomed view scrolls along with playback.
+ * Used on the event dispatch thread only.
+ */
+public class WaveformSeekBar extends JComponent {
+    private static final long serialVersionUID = 1L;
+
+    private static final Color BACKGROUND = Color.BLACK;
+    private static final Color PEAK = new Color(0, 110, 0);
+    private static final Color RMS = Color.GREEN;
+    private static final Color PLAYED = new Color(255, 255, 255, 60);
+    private static final Color PLAYHEAD = Color.WHITE;
+    private static final double ZOOM_STEP = 2;
+
+    /**
+     * SeekListener is told when the user starts dragging and where they let go.
+     */
+    public interface SeekListener {
+        void seekStarted();
+
+        void seekFinished(float fraction);
+    }
+
+    private SeekListener listener;
+    private Waveform waveform;
+    private Throwable failure;
+    private float progress;
+    private boolean dragging;
+
+    // visible part of the track, as fractions of its length
+    private double viewStart = 0;
+    private double viewLength = 1;
+
+    private BufferedImage image;
+    private int imageRevision = -1;
+    private double imageStart = -1;
+    private double imageLength = -1;
+    private float[] min = new float[0];
+    private float[] max = new float[0];
+    private float[] rms = new float[0];
+
+    public WaveformSeekBar() {
+        setPreferredSize(new Dimension(480, 40));
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragging = true;
+                if (listener != null) listener.seekStarted();
+                progress = fractionAt(e.getX());
+                repaint();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                progress = fractionAt(e.getX());
+                repaint();
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                progress = fractionAt(e.getX());
+                dragging = false;
+                if (listener != null) listener.seekFinished(progress);
+                repaint();
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoom(e.getX(), Math.pow(ZOOM_STEP, e.getPreciseWheelRotation()));
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    public void setSeekListener(SeekListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Shows a new track's waveform, or none, zoomed out fully.
+     */
+    public void setWaveform(Waveform waveform) {
+        this.waveform = waveform;
+        failure = null;
+        viewStart = 0;
+        viewLength = 1;
+        imageRevision = -1;
+        updateToolTip();
+        repaint();
+    }
+
+    /**
+     * Shows that the waveform of the current track could not be built at all.
+     */
+    public void setFailure(Throwable cause) {
+        failure = cause;
+        updateToolTip();
+    }
+
+    /**
+     * Explains in the tooltip why the waveform is missing or stops short, if it does.
+     */
+    private void updateToolTip() {
+        Throwable cause = failure != null ? failure : waveform != null ? waveform.getFailure() : null;
+        setToolTipText(cause != null ? "Waveform unavailable: " + cause.getMessage() : null);
+    }
+
+    /**
+     * Moves the playhead, unless the user is dragging it, and repaints if the waveform
+     * has filled in further.
+     */
+    public void setProgress(float progress) {
+        if (dragging) return;
+        this.progress = progress;
+        if (progress < viewStart || progress > viewStart + viewLength) {
+            // page a zoomed view along with playback
+            viewStart = Math.max(0, Math.min(1 - viewLength, progress));
+        }
+        repaint();
+    }
+
+    public boolean isDragging() {
+        return dragging;
+    }
+
+    private float fractionAt(int x) {
+        double fraction = viewStart + viewLength * x / Math.max(1, getWidth());
+        return (float) Math.max(0, Math.min(1, fraction));
+    }
+
+    private void zoom(int x, double factor) {
+        double anchor = viewStart + viewLength * x / Math.max(1, getWidth());
+        double minLength = waveform != null && waveform.getFrameLength() > 0
+            ? Math.min(1, (double) Waveform.BASE_BUCKET * getWidth() / waveform.getFrameLength())
+            : 1;
+        viewLength = Math.max(minLength, Math.min(1, viewLength * factor));
+        // keep the point under the pointer where it is
+        viewStart = Math.max(0, Math.min(1 - viewLength, anchor - viewLength * x / Math.max(1, getWidth())));
+        repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        int width = getWidth();
+        int height = getHeight();
+        if (width <= 0 || height <= 0) return;
+        ensureImage(width, height);
+        g.drawImage(image, 0, 0, null);
+
+        int x = (int) ((progress - viewStart) / viewLength * width);
+        g.setColor(PLAYED);
+        g.fillRect(0, 0, Math.max(0, Math.min(width, x)), height);
+        if (x >= 0 && x < width) {
+            g.setColor(PLAYHEAD);
+            g.drawLine(x, 0, x, height);
+        }
+    }
+
+    /**
+     * Redraws the waveform image if the size, the view or the waveform changed.
+     */
+    private void ensureImage(int width, int height) {
+        int revision = waveform != null ? waveform.getRevision() : -1;
+        if (image != null && image.getWidth() == width && image.getHeight() == height
+            && revision == imageRevision && viewStart == imageStart && viewLength == imageLength) {
+            return;
+        }
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            GraphicsConfiguration config = getGraphicsConfiguration();
+            image = config != null
+                ? config.createCompatibleImage(width, height)
+                : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        imageRevision = revision;
+        updateToolTip();
+        imageStart = viewStart;
+        imageLength = viewLength;
+
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(BACKGROUND);
+            g.fillRect(0, 0, width, height);
+            int middle = height / 2;
+            if (waveform == null || waveform.getFrameLength() <= 0) {
+                g.setColor(PEAK);
+                g.drawLine(0, middle, width, middle);
+                return;
+            }
+
+            if (min.length != width) {
+                min = new float[width];
+                max = new float[width];
+                rms = new float[width];
+            }
+            long frames = waveform.getFrameLength();
+            long from = (long) (viewStart * frames);
+            long to = Math.max(from + 1, (long) ((viewStart + viewLength) * frames));
+            waveform.render(from, to, width, min, max, rms);
+
+            float scale = middle;
+            for (int x = 0; x < width; x++) {
+                g.setColor(PEAK);
+                g.drawLine(x, middle - (int) (max[x] * scale), x, middle - (int) (min[x] * scale));
+                int r = (int) (rms[x] * scale);
+                g.setColor(RMS);
+                g.drawLine(x, middle - r, x, middle + r);
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+}
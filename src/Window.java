@@ -5,13 +5,26 @@ import java.io.*;
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.Dimension;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
 
 public class Window {
     private boolean seeking = false;
+    private boolean resumeAfterSeek = false;
     private AudioPlayer audioPlayer = new AudioPlayer();
-    private boolean isSeekingInternally = false;
+    private String waveformPath;
 
     public Window() {
+        this(null);
+    }
+
+    /**
+     * @param initialPath a track to start playing: a file, "-" for standard input, a named pipe or
+     *             an http URL; or null
+     */
+    public Window(String initialPath) {
         JFrame frame = new JFrame("Music Visualizer");
 
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -28,8 +41,15 @@ public class Window {
         // upload button
         JMenuItem uploadItem = new JMenuItem("Open");
 
+        // queue button
+        JMenuItem queueItem = new JMenuItem("Add to Queue");
+
+        // library button
+        JMenuItem libraryItem = new JMenuItem("Open Folder");
+
         // visualizer
-        VisualizerPanel visualizerPanel = new VisualizerPanel();
+        AnalysisBus analysisBus = new AnalysisBus(audioPlayer);
+        VisualizerPanel visualizerPanel = new VisualizerPanel(analysisBus);
         frame.add(visualizerPanel, BorderLayout.CENTER);
 
         // control panel
@@ -44,15 +64,15 @@ public class Window {
         controlPanel.add(playPauseButton);
 
         playPauseButton.addActionListener(e -> {
-            if (audioPlayer.isPaused) {
-                audioPlayer.resume();
-            } else {
+            if (audioPlayer.getState() == PlaybackState.PLAYING) {
                 audioPlayer.pause();
+            } else {
+                audioPlayer.resume();
             }
         });
 
         // seek bar
-        JSlider seekBar = new JSlider(0, 100, 0);
+        WaveformSeekBar seekBar = new WaveformSeekBar();
         controlPanel.add(seekBar);
 
         // bottom panel
@@ -65,7 +85,21 @@ public class Window {
 
         // assemble menu
         fileMenu.add(uploadItem);
+        fileMenu.add(queueItem);
+        fileMenu.add(libraryItem);
         menuBar.add(fileMenu);
+
+        // output menu: how much audio is buffered ahead of the speakers
+        JMenu outputMenu = new JMenu("Output");
+        ButtonGroup outputGroup = new ButtonGroup();
+        for (OutputProfile profile : OutputProfile.values()) {
+            JRadioButtonMenuItem profileItem = new JRadioButtonMenuItem(profile.getLabel(),
+                profile == audioPlayer.getOutputProfile());
+            profileItem.addActionListener(e -> audioPlayer.setOutputProfile(profile));
+            outputGroup.add(profileItem);
+            outputMenu.add(profileItem);
+        }
+        menuBar.add(outputMenu);
         frame.setJMenuBar(menuBar);
 
         // south container holds both control panel and bottom panel vertically
@@ -98,46 +132,114 @@ public class Window {
             }
         });
 
-        // user-initiated seeking
-        seekBar.addChangeListener(e -> {
-            if (isSeekingInternally) return;
+        // queue listener
+        queueItem.addActionListener((ActionEvent e) -> {
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setMultiSelectionEnabled(true);
+            fileChooser.setFileFilter(new FileNameExtensionFilter(
+                "Audio Files (*.mp3, *.wav)", "mp3", "wav"
+            ));
 
-            if (seekBar.getValueIsAdjusting()) {
-                if (!seeking) {
-                    seeking = true;
-                    audioPlayer.pause(); // pause only once at drag start
+            int result = fileChooser.showOpenDialog(frame);
+            if (result == JFileChooser.APPROVE_OPTION) {
+                for (File selectedFile : fileChooser.getSelectedFiles()) {
+                    audioPlayer.enqueue(selectedFile.getAbsolutePath(), selectedFile.getName(), songLabel::setText);
                 }
-            } else {
-                float percent = seekBar.getValue() / 100f;
-                audioPlayer.seek(percent);
+            }
+        });
+
+        // library listener
+        libraryItem.addActionListener((ActionEvent e) -> {
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+
+            int result = fileChooser.showOpenDialog(frame);
+            if (result == JFileChooser.APPROVE_OPTION) {
+                File directory = fileChooser.getSelectedFile();
+                songLabel.setText("Indexing " + directory.getName() + "...");
+                // the first scan of a large library reads every file, so keep it off the EDT
+                Thread scanThread = new Thread(() -> {
+                    try {
+                        List<TrackInfo> tracks = new LibraryIndex(directory.toPath(), LibraryIndex.DEFAULT_WORKERS).scan();
+                        SwingUtilities.invokeLater(() -> {
+                            songLabel.setText(tracks.size() + " tracks in " + directory.getName());
+                            for (TrackInfo track : tracks) {
+                                audioPlayer.enqueue(track.getPath().toString(), track.getPath().getFileName().toString(), songLabel::setText);
+                            }
+                        });
+                    } catch (IOException ex) {
+                        SwingUtilities.invokeLater(() -> songLabel.setText("Error: " + ex.getMessage()));
+                    }
+                }, "library-scan");
+                scanThread.setDaemon(true);
+                scanThread.start();
+            }
+        });
+
+        // user-initiated seeking
+        seekBar.setSeekListener(new WaveformSeekBar.SeekListener() {
+            @Override
+            public void seekStarted() {
+                seeking = true;
+                // pause only once at drag start
+                resumeAfterSeek = audioPlayer.getState() == PlaybackState.PLAYING;
+                if (resumeAfterSeek) audioPlayer.pause();
+            }
+
+            @Override
+            public void seekFinished(float fraction) {
+                audioPlayer.seek(fraction);
+                if (resumeAfterSeek) audioPlayer.resume();
                 seeking = false;
+                resumeAfterSeek = false;
             }
         });
 
+        // state listener
+        audioPlayer.addListener(state -> SwingUtilities.invokeLater(() -> {
+            // set play button icon based on audio player
+            playPauseButton.setIcon(state == PlaybackState.PLAYING ? pauseIcon : playIcon);
+            if (state == PlaybackState.STOPPED) {
+                seekBar.setProgress(0);
+            }
+        }));
+
         // timer
         Timer progressTimer = new Timer(100, e -> {
-            if (!seeking && !audioPlayer.isPaused) {
-                float progress = audioPlayer.getProgress();
-                isSeekingInternally = true;
-                seekBar.setValue((int)(progress * 100));
-                isSeekingInternally = false;
+            // the waveform of a new track is decoded in the background and fills in as it goes
+            String path = audioPlayer.getPlaybackPath();
+            if (!Objects.equals(path, waveformPath)) {
+                waveformPath = path;
+                seekBar.setWaveform(null);
+                // a stream can only be read once, by the player
+                if (path != null && !PcmSource.isStream(path)) {
+                    WaveformCache.get(Path.of(path)).whenComplete((waveform, error) -> SwingUtilities.invokeLater(() -> {
+                        if (!path.equals(waveformPath)) return;
+                        if (error != null) {
+                            seekBar.setFailure(error instanceof CompletionException ? error.getCause() : error);
+                        } else {
+                            seekBar.setWaveform(waveform);
+                        }
+                    }));
+                }
             }
-            // set play button icon based on audio player
-            playPauseButton.setIcon(audioPlayer.isPaused ? playIcon : pauseIcon);
-            if (audioPlayer.isFinished) {
-                isSeekingInternally = true;
-                seekBar.setValue(0);
-                isSeekingInternally = false;
-                playPauseButton.setIcon(playIcon);
+
+            if (!seeking && audioPlayer.getState() == PlaybackState.PLAYING) {
+                seekBar.setProgress(audioPlayer.getProgress());
+            } else {
+                seekBar.repaint();
             }
         });
         progressTimer.start();
 
-        seekBar.setEnabled(true);
+        if (initialPath != null) {
+            String name = initialPath.equals("-") ? "standard input" : initialPath;
+            audioPlayer.play(initialPath, name, songLabel::setText);
+        }
     }
 
     public static void main(String args[]) {
-        new Window();
+        new Window(args.length > 0 ? args[0] : null);
     }
 
 }
\ No newline at end of file